@@ -3,19 +3,27 @@ package ru.yandex.practicum.filmorate.api.controller;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import ru.yandex.practicum.filmorate.api.dto.CreateFilmRequest;
 import ru.yandex.practicum.filmorate.api.dto.FilmDTO;
+import ru.yandex.practicum.filmorate.api.dto.FilmImportReport;
 import ru.yandex.practicum.filmorate.api.dto.UpdateFilmRequest;
+import ru.yandex.practicum.filmorate.api.stream.NdjsonWriter;
 
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -28,15 +36,36 @@ import java.util.List;
 public class FilmController {
 
     private final FilmService filmService;
+    private final NdjsonWriter ndjsonWriter;
 
     @Autowired
-    public FilmController(FilmService filmService) {
+    public FilmController(FilmService filmService, NdjsonWriter ndjsonWriter) {
         this.filmService = filmService;
+        this.ndjsonWriter = ndjsonWriter;
     }
 
     @GetMapping
-    public List<FilmDTO> getAllFilms() {
-        return filmService.getAllFilms();
+    public List<FilmDTO> getAllFilms(
+            @RequestParam(required = false)
+            @Positive(message = "limit должен быть целым числом больше 0")
+            Integer limit,
+            @RequestParam(required = false)
+            @PositiveOrZero(message = "afterId должен быть целым числом не меньше 0")
+            Integer afterId
+    ) {
+        if (limit == null && afterId == null) {
+            return filmService.getAllFilms();
+        }
+        return filmService.getFilmsPage(limit == null ? Integer.MAX_VALUE : limit, afterId == null ? 0 : afterId);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllFilms(
+            @RequestParam(defaultValue = "0")
+            @PositiveOrZero(message = "afterId должен быть целым числом не меньше 0")
+            int afterId
+    ) {
+        return ndjsonWriter.<FilmDTO>stream(consumer -> filmService.streamFilms(afterId, consumer));
     }
 
     @GetMapping("/{id}")
@@ -52,6 +81,14 @@ public class FilmController {
         return filmService.addFilm(film);
     }
 
+    /**
+     * Импорт каталога: тело запроса - NDJSON, по одному фильму в формате POST /films в строке.
+     */
+    @PostMapping(value = "/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public FilmImportReport importFilms(InputStream body) throws IOException {
+        return filmService.importFilms(body);
+    }
+
     @PutMapping
     public FilmDTO updateFilm(@Valid @RequestBody UpdateFilmRequest film) {
         return filmService.updateFilm(film);
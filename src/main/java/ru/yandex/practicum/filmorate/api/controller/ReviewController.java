@@ -27,9 +27,10 @@ public class ReviewController {
 
     @GetMapping
     public List<ReviewDTO> getReviews(@RequestParam(defaultValue = "0") int filmId,
-                                      @RequestParam(defaultValue = "10") @Positive(message = "count должно быть положительным") int count) {
-        log.debug("Получение отзывов: filmId={}, count={}", filmId, count);
-        return reviewService.getReviews(filmId, count);
+                                      @RequestParam(defaultValue = "10") @Positive(message = "count должно быть положительным") int count,
+                                      @RequestParam(required = false) @Positive(message = "after должно быть больше 0") Integer after) {
+        log.debug("Получение отзывов: filmId={}, count={}, after={}", filmId, count, after);
+        return reviewService.getReviews(filmId, count, after);
     }
 
     @GetMapping("/{id}")
@@ -2,18 +2,24 @@ package ru.yandex.practicum.filmorate.api.controller;
 
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import ru.yandex.practicum.filmorate.api.dto.*;
+import ru.yandex.practicum.filmorate.api.stream.NdjsonWriter;
 
 import ru.yandex.practicum.filmorate.service.EventService;
 import ru.yandex.practicum.filmorate.service.FilmService;
 import ru.yandex.practicum.filmorate.service.FriendshipService;
+import ru.yandex.practicum.filmorate.service.TimelineService;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import java.util.List;
@@ -29,17 +35,23 @@ public class UserController {
     private final FriendshipService friendshipService;
     private final EventService eventService;
     private final FilmService filmService;
+    private final TimelineService timelineService;
+    private final NdjsonWriter ndjsonWriter;
 
     @Autowired
     public UserController(UserService userService,
                           FriendshipService friendshipService,
                           FilmService filmService,
-                          EventService eventService
+                          EventService eventService,
+                          TimelineService timelineService,
+                          NdjsonWriter ndjsonWriter
     ) {
         this.userService = userService;
         this.friendshipService = friendshipService;
         this.filmService = filmService;
         this.eventService = eventService;
+        this.timelineService = timelineService;
+        this.ndjsonWriter = ndjsonWriter;
     }
 
     @PostMapping
@@ -49,8 +61,27 @@ public class UserController {
     }
 
     @GetMapping
-    public List<UserDTO> getAllUsers() {
-        return userService.getAllUsers();
+    public List<UserDTO> getAllUsers(
+            @RequestParam(required = false)
+            @Positive(message = "limit должен быть целым числом больше 0")
+            Integer limit,
+            @RequestParam(required = false)
+            @PositiveOrZero(message = "afterId должен быть целым числом не меньше 0")
+            Integer afterId
+    ) {
+        if (limit == null && afterId == null) {
+            return userService.getAllUsers();
+        }
+        return userService.getUsersPage(limit == null ? Integer.MAX_VALUE : limit, afterId == null ? 0 : afterId);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllUsers(
+            @RequestParam(defaultValue = "0")
+            @PositiveOrZero(message = "afterId должен быть целым числом не меньше 0")
+            int afterId
+    ) {
+        return ndjsonWriter.<UserDTO>stream(consumer -> userService.streamUsers(afterId, consumer));
     }
 
     @GetMapping("/{id}")
@@ -124,9 +155,50 @@ public class UserController {
     public List<EventDTO> getUserFeed(
             @PathVariable
             @Positive(message = "user_id должен быть целым числом больше 0")
-            int id
+            int id,
+            @RequestParam(required = false)
+            @Positive(message = "limit должен быть целым числом больше 0")
+            Integer limit,
+            @RequestParam(required = false)
+            Long afterTimestamp,
+            @RequestParam(required = false)
+            Long afterId
+    ) {
+        if (limit == null && afterTimestamp == null && afterId == null) {
+            return eventService.getUserFeed(id);
+        }
+        return eventService.getUserFeed(id, limit == null ? Integer.MAX_VALUE : limit, afterTimestamp, afterId);
+    }
+
+    @GetMapping(value = "/{id}/feed", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUserFeed(
+            @PathVariable
+            @Positive(message = "user_id должен быть целым числом больше 0")
+            int id,
+            @RequestParam(required = false)
+            Long afterTimestamp,
+            @RequestParam(required = false)
+            Long afterId
+    ) {
+        eventService.checkFeedCursor(afterTimestamp, afterId);
+        eventService.checkUserExists(id);
+        return ndjsonWriter.<EventDTO>stream(
+                consumer -> eventService.streamUserFeed(id, afterTimestamp, afterId, consumer));
+    }
+
+    @GetMapping("/{id}/friends/feed")
+    public List<EventDTO> getFriendsFeed(
+            @PathVariable
+            @Positive(message = "user_id должен быть целым числом больше 0")
+            int id,
+            @RequestParam(defaultValue = "0")
+            @PositiveOrZero(message = "offset должен быть целым числом не меньше 0")
+            int offset,
+            @RequestParam(defaultValue = "20")
+            @Positive(message = "limit должен быть целым числом больше 0")
+            int limit
     ) {
-        return eventService.getUserFeed(id);
+        return timelineService.getFriendsFeed(id, offset, limit);
     }
 
     @GetMapping("/{id}/recommendations")
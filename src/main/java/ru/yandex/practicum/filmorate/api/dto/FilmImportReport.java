@@ -0,0 +1,32 @@
+package ru.yandex.practicum.filmorate.api.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class FilmImportReport {
+    private final int imported;
+    private final int rejected;
+    private final long millis;
+    private final List<Chunk> chunks;
+    private final List<LineError> errors;
+
+    @Data
+    @Builder
+    public static class Chunk {
+        private final int chunk;
+        private final int films;
+        private final long millis;
+        private final long filmsPerSecond;
+    }
+
+    @Data
+    @Builder
+    public static class LineError {
+        private final int line;
+        private final String message;
+    }
+}
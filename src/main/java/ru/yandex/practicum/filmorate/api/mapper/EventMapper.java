@@ -15,7 +15,7 @@ public class EventMapper {
                 .timestamp(event.getTimestamp().toEpochMilli())
                 .eventType(event.getType())
                 .operation(event.getOperation())
-                .userId(event.getUser().getId())
+                .userId(event.getUserId())
                 .entityId(event.getEntityId())
                 .build();
     }
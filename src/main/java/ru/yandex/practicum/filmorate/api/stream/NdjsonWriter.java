@@ -0,0 +1,58 @@
+package ru.yandex.practicum.filmorate.api.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Отдает элементы в формате NDJSON (один JSON-объект на строку) по мере их получения из базы.
+ * Первая строка отправляется клиенту сразу, дальше буфер сбрасывается каждые FLUSH_EVERY строк.
+ */
+@Component
+public class NdjsonWriter {
+    private static final int FLUSH_EVERY = 256;
+
+    private final ObjectWriter writer;
+
+    @Autowired
+    public NdjsonWriter(ObjectMapper objectMapper) {
+        this.writer = objectMapper.writer();
+    }
+
+    public <T> ResponseEntity<StreamingResponseBody> stream(Consumer<Consumer<T>> source) {
+        StreamingResponseBody body = outputStream -> {
+            OutputStream out = new BufferedOutputStream(outputStream);
+            int[] written = {0};
+            try {
+                source.accept(item -> {
+                    try {
+                        out.write(writer.writeValueAsBytes(item));
+                        out.write('\n');
+                        if (++written[0] % FLUSH_EVERY == 1) {
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.flush();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+}
@@ -12,6 +12,6 @@ public class Event {
     private final Instant timestamp;
     private final EventType type;
     private final EventOperation operation;
-    private final User user;
+    private final int userId;
     private final long entityId;
 }
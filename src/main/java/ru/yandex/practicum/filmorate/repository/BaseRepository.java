@@ -1,25 +1,67 @@
 package ru.yandex.practicum.filmorate.repository;
 
-import lombok.RequiredArgsConstructor;
-
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import ru.yandex.practicum.filmorate.exception.EntityUpdateErrorException;
 
 import java.sql.PreparedStatement;
 import java.sql.Statement;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
-@RequiredArgsConstructor
 public class BaseRepository<T> {
     protected final JdbcTemplate jdbc;
     protected final RowMapper<T> rowMapper;
+    private final String tableName;
+    private final String idColumn;
+    private final String existsCondition;
+
+    public BaseRepository(JdbcTemplate jdbc, RowMapper<T> rowMapper) {
+        this(jdbc, rowMapper, null, null);
+    }
+
+    public BaseRepository(JdbcTemplate jdbc, RowMapper<T> rowMapper, String tableName, String idColumn) {
+        this(jdbc, rowMapper, tableName, idColumn, null);
+    }
+
+    /**
+     * existsCondition - дополнительное условие, которому должна удовлетворять строка, чтобы считаться
+     * существующей в existsById и existsAll (например, "not deleted").
+     */
+    public BaseRepository(JdbcTemplate jdbc, RowMapper<T> rowMapper, String tableName, String idColumn,
+                          String existsCondition) {
+        this.jdbc = jdbc;
+        this.rowMapper = rowMapper;
+        this.tableName = tableName;
+        this.idColumn = idColumn;
+        this.existsCondition = existsCondition == null ? "" : " and " + existsCondition;
+    }
+
+    public boolean existsById(int id) {
+        String query = "select exists(select 1 from %s where %s = ?%s)".formatted(table(), idColumn, existsCondition);
+        return Boolean.TRUE.equals(jdbc.queryForObject(query, Boolean.class, id));
+    }
+
+    /**
+     * Проверяет одним запросом, что в таблице есть все переданные id (повторы не учитываются).
+     */
+    public boolean existsAll(Collection<Integer> ids) {
+        Object[] uniqueIds = ids.stream().distinct().toArray();
+        if (uniqueIds.length == 0) {
+            return true;
+        }
+        String query = "select count(*) from %s where %s = any(?)%s".formatted(table(), idColumn, existsCondition);
+        Integer found = jdbc.queryForObject(query, Integer.class, (Object) uniqueIds);
+        return found != null && found == uniqueIds.length;
+    }
 
     protected Long insert(String query, Object... params) {
         KeyHolder keyHolder = new GeneratedKeyHolder();
@@ -40,6 +82,23 @@ public class BaseRepository<T> {
         }
     }
 
+    /**
+     * Выполняет action после фиксации текущей транзакции, а вне транзакции - сразу.
+     * Так кэши и индексы в памяти не увидят изменений, которые потом откатятся.
+     */
+    protected static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
     protected Optional<T> getRecord(String query, Object... params) {
         try {
             return Optional.ofNullable(jdbc.queryForObject(query, rowMapper, params));
@@ -60,4 +119,11 @@ public class BaseRepository<T> {
         int rowsDeleted = jdbc.update(query, params);
         return rowsDeleted > 0;
     }
+
+    private String table() {
+        if (tableName == null) {
+            throw new IllegalStateException(getClass().getSimpleName() + " не поддерживает проверку по id");
+        }
+        return tableName;
+    }
 }
@@ -1,18 +1,30 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.model.Director;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Repository
 public class DirectorRepository extends BaseRepository<Director> {
+    private final Cache<Integer, Director> cache;
 
-    public DirectorRepository(JdbcTemplate jdbc, RowMapper<Director> directorRowMapper) {
-        super(jdbc, directorRowMapper);
+    public DirectorRepository(JdbcTemplate jdbc, RowMapper<Director> directorRowMapper,
+                              @Value("${filmorate.cache.reference.max-size:1000}") long maxSize) {
+        super(jdbc, directorRowMapper, "directors", "id");
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .build();
     }
 
     public Director addDirector(Director director) {
@@ -25,6 +37,7 @@ public class DirectorRepository extends BaseRepository<Director> {
     public Director updateDirector(Director director) {
         String query = "UPDATE directors SET name = ? WHERE id = ?";
         int rowsUpdated = update(query, director.getName(), director.getId());
+        cache.invalidate(director.getId());
         if (rowsUpdated == 0) {
             throw new ru.yandex.practicum.filmorate.exception.EntityUpdateErrorException("Не удалось обновить режиссера с id: " + director.getId());
         }
@@ -38,12 +51,24 @@ public class DirectorRepository extends BaseRepository<Director> {
 
     public Optional<Director> getDirectorById(int id) {
         String query = "SELECT * FROM directors WHERE id = ?";
-        return getRecord(query, id);
+        return Optional.ofNullable(cache.get(id, key -> getRecord(query, key).orElse(null)));
+    }
+
+    /**
+     * Режиссеры по списку id; отсутствующих в базе id в результате нет.
+     */
+    public Map<Integer, Director> getDirectorsByIds(Collection<Integer> ids) {
+        String query = "SELECT * FROM directors WHERE id = ANY(?)";
+        return cache.getAll(ids, missing -> getRecords(query, (Object) missing.toArray())
+                .stream()
+                .collect(Collectors.toMap(Director::getId, Function.identity())));
     }
 
     public boolean deleteDirector(int id) {
         String query = "DELETE FROM directors WHERE id = ?";
-        return delete(query, id);
+        boolean deleted = delete(query, id);
+        cache.invalidate(id);
+        return deleted;
     }
 
     public void linkDirectorsToFilm(int filmId, List<Director> directors) {
@@ -1,29 +1,47 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 import ru.yandex.practicum.filmorate.model.Event;
 
 @Repository
 public class EventRepository extends BaseRepository<Event> {
+    private static final String ID_SEQUENCE = "events_id_seq";
 
-    public EventRepository(JdbcTemplate jdbc, RowMapper<Event> rowMapper) {
+    private final IdAllocator idAllocator;
+    private final int fetchSize;
+
+    public EventRepository(JdbcTemplate jdbc, RowMapper<Event> rowMapper, IdAllocator idAllocator,
+                           @Value("${filmorate.feed.fetch-size:500}") int fetchSize) {
         super(jdbc, rowMapper);
+        this.idAllocator = idAllocator;
+        this.fetchSize = fetchSize;
     }
 
     public Event saveEvent(Event event) {
-        String query = "insert into events (timestamp, type, operation, user_id, entity_id)"
-                       + " values (?, ?, ?, ?, ?)";
+        String query = "insert into events (id, timestamp, type, operation, user_id, entity_id)"
+                       + " values (?, ?, ?, ?, ?, ?)";
 
-        long id = insert(query,
+        long id = idAllocator.next(ID_SEQUENCE);
+        update(query,
+                id,
                 event.getTimestamp().toEpochMilli(),
                 event.getType().toString(),
                 event.getOperation().toString(),
-                event.getUser().getId(),
+                event.getUserId(),
                 event.getEntityId()
         );
 
@@ -31,8 +49,85 @@ public class EventRepository extends BaseRepository<Event> {
         return event;
     }
 
+    /**
+     * Записывает пачку событий в одной транзакции: если пачка не записалась, в базе не остается
+     * ни одного ее события, и их можно записать по одному без дублей.
+     */
+    @Transactional
+    public void saveEvents(List<Event> events) {
+        String query = "insert into events (id, timestamp, type, operation, user_id, entity_id)"
+                       + " values (?, ?, ?, ?, ?, ?)";
+        long[] ids = idAllocator.next(ID_SEQUENCE, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            events.get(i).setId(ids[i]);
+        }
+        jdbc.batchUpdate(query, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Event event = events.get(i);
+                ps.setLong(1, event.getId());
+                ps.setLong(2, event.getTimestamp().toEpochMilli());
+                ps.setString(3, event.getType().toString());
+                ps.setString(4, event.getOperation().toString());
+                ps.setInt(5, event.getUserId());
+                ps.setLong(6, event.getEntityId());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return events.size();
+            }
+        });
+    }
+
     public List<Event> getEventsByUserId(int id) {
         String query = "select * from events where user_id = ? order by timestamp asc, id asc";
         return getRecords(query, id);
     }
+
+    /**
+     * Страница ленты после события (afterTimestamp, afterId); без курсора - с начала ленты.
+     */
+    public List<Event> getEventsByUserId(int id, int limit, Long afterTimestamp, Long afterId) {
+        StringBuilder query = new StringBuilder("select * from events where user_id = ?");
+        List<Object> params = new ArrayList<>(List.of(id));
+        if (afterTimestamp != null) {
+            query.append(" and (timestamp > ? or (timestamp = ? and id > ?))");
+            params.addAll(List.of(afterTimestamp, afterTimestamp, afterId));
+        }
+        query.append(" order by timestamp asc, id asc limit ?");
+        params.add(limit);
+        return getRecords(query.toString(), params.toArray());
+    }
+
+    public List<Event> getRecentEventsByUserIds(int[] userIds, int limit) {
+        if (userIds.length == 0) {
+            return List.of();
+        }
+        String query = "select * from events where user_id = any(?) order by timestamp desc, id desc limit ?";
+        return getRecords(query, Arrays.stream(userIds).boxed().toArray(), limit);
+    }
+
+    /**
+     * Передает события ленты после (afterTimestamp, afterId) в consumer по мере чтения из базы,
+     * не собирая их в список; без курсора - с начала ленты.
+     */
+    public void streamEventsByUserId(int id, Long afterTimestamp, Long afterId, Consumer<Event> consumer) {
+        StringBuilder query = new StringBuilder("select * from events where user_id = ?");
+        if (afterTimestamp != null) {
+            query.append(" and (timestamp > ? or (timestamp = ? and id > ?))");
+        }
+        query.append(" order by timestamp asc, id asc");
+        jdbc.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(query.toString());
+            ps.setFetchSize(fetchSize);
+            ps.setInt(1, id);
+            if (afterTimestamp != null) {
+                ps.setLong(2, afterTimestamp);
+                ps.setLong(3, afterTimestamp);
+                ps.setLong(4, afterId);
+            }
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(rowMapper.mapRow(rs, rs.getRow())));
+    }
 }
\ No newline at end of file
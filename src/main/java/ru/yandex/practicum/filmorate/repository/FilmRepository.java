@@ -1,47 +1,164 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.EntityUpdateErrorException;
+import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.repository.mapper.DirectorFilmRowMapper;
 
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 
+/**
+ * Фильмы по id кэшируются целиком (вместе с жанрами и режиссерами); любое изменение фильма или его связей
+ * вытесняет запись. Для проверок существования хранится битовая карта id всех фильмов.
+ * Поле likesCount в кэшированных фильмах может отставать - актуальное число лайков хранит PopularityIndex.
+ */
 @Slf4j
 @Repository
 public class FilmRepository extends BaseRepository<Film> {
+    private static final String ID_SEQUENCE = "films_id_seq";
+    private static final String LIKES_OF_ACTIVE_USERS = "(select count(*) from likes l"
+            + " inner join users u on u.id = l.user_id"
+            + " where l.film_id = f.id and not u.deleted)";
+    private static final String[] PURGE_QUERIES = {
+        "delete from review_likes where review_id in (select review_id from reviews where film_id = ?)"
+                + " fetch first ? rows only",
+        "delete from reviews where film_id = ? fetch first ? rows only",
+        "delete from likes where film_id = ? fetch first ? rows only"
+    };
 
     private final DirectorFilmRowMapper directorFilmRowMapper;
     private final RowMapper<Film> filmWithLikesRowMapper;
-
-    public FilmRepository(JdbcTemplate jdbc, @Qualifier("filmRowMapper") RowMapper<Film> rowMapper, DirectorFilmRowMapper directorFilmRowMapper, RowMapper<Film> filmWithLikesRowMapper) {
-        super(jdbc, rowMapper);
+    private final Cache<Integer, Film> filmCache;
+    private final BitSet filmIds = new BitSet();
+    private final int fetchSize;
+    private final IdAllocator idAllocator;
+
+    public FilmRepository(JdbcTemplate jdbc, @Qualifier("filmRowMapper") RowMapper<Film> rowMapper, DirectorFilmRowMapper directorFilmRowMapper, RowMapper<Film> filmWithLikesRowMapper,
+                          IdAllocator idAllocator,
+                          MeterRegistry meterRegistry,
+                          @Value("${filmorate.cache.films.max-size:10000}") long cacheSize,
+                          @Value("${filmorate.export.fetch-size:500}") int fetchSize) {
+        super(jdbc, rowMapper, "films", "id");
+        this.fetchSize = fetchSize;
+        this.idAllocator = idAllocator;
         this.directorFilmRowMapper = directorFilmRowMapper;
         this.filmWithLikesRowMapper = filmWithLikesRowMapper;
+        this.filmCache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, filmCache, "films");
+    }
+
+    @PostConstruct
+    void loadFilmIds() {
+        String query = "select id from films where not deleted";
+        synchronized (filmIds) {
+            jdbc.query(query, (RowCallbackHandler) rs -> filmIds.set(rs.getInt("id")));
+        }
     }
 
+    @Override
+    public boolean existsById(int id) {
+        synchronized (filmIds) {
+            return id >= 0 && filmIds.get(id);
+        }
+    }
+
+    /**
+     * Убирает из кэша фильмы указанного режиссера, например после его переименования или удаления.
+     */
+    public void evictFilmsWithDirector(int directorId) {
+        filmCache.asMap().values().removeIf(film -> film.getDirectors()
+                .stream()
+                .anyMatch(director -> director.getId() == directorId));
+    }
+
+    /**
+     * Добавляет фильм вместе со связями с жанрами и режиссерами в одной транзакции.
+     */
+    @Transactional
     public Film addFilm(Film film) {
-        String query = "insert into films (name, description, release_date, duration, mpa_id)"
-                + " values (?, ?, ?, ?, ?)";
-        int id = insert(query,
-                film.getName(),
-                film.getDescription(),
-                film.getReleaseDate(),
-                film.getDuration().toSeconds(),
-                film.getMpa().getId()
-        ).intValue();
-        film.setId(id);
-        return film;
+        return addFilms(List.of(film)).get(0);
+    }
+
+    /**
+     * Добавляет фильмы вместе со связями с жанрами и режиссерами пакетными запросами.
+     * Рассчитан на вызов внутри транзакции: id попадают в битовую карту после ее фиксации.
+     */
+    public List<Film> addFilms(List<Film> films) {
+        long[] ids = idAllocator.next(ID_SEQUENCE, films.size());
+        List<Object[]> rows = new ArrayList<>(films.size());
+        List<Object[]> genres = new ArrayList<>();
+        List<Object[]> directors = new ArrayList<>();
+        for (int i = 0; i < films.size(); i++) {
+            Film film = films.get(i);
+            film.setId((int) ids[i]);
+            rows.add(new Object[]{
+                    film.getId(),
+                    film.getName(),
+                    film.getDescription(),
+                    film.getReleaseDate(),
+                    film.getDuration() == null ? null : film.getDuration().toSeconds(),
+                    film.getMpa().getId()});
+            film.getGenres().stream()
+                    .map(Genre::getId)
+                    .distinct()
+                    .forEach(genreId -> genres.add(new Object[]{film.getId(), genreId}));
+            film.getDirectors().stream()
+                    .map(Director::getId)
+                    .distinct()
+                    .forEach(directorId -> directors.add(new Object[]{film.getId(), directorId}));
+        }
+        jdbc.batchUpdate("insert into films (id, name, description, release_date, duration, mpa_id)"
+                + " values (?, ?, ?, ?, ?, ?)", rows);
+        jdbc.batchUpdate("insert into film_genres (film_id, genre_id) values (?, ?)", genres);
+        jdbc.batchUpdate("insert into film_directors (film_id, director_id) values (?, ?)", directors);
+
+        afterCommit(() -> {
+            synchronized (filmIds) {
+                films.forEach(film -> filmIds.set(film.getId()));
+            }
+        });
+        return films;
     }
 
+    /**
+     * Обновляет фильм и его связи в одной транзакции. Связи с жанрами и режиссерами не пересоздаются:
+     * удаляются и добавляются только изменившиеся. Фильм вытесняется из кэша после фиксации,
+     * чтобы параллельное чтение не оставило в кэше старую версию.
+     */
+    @Transactional
     public Film updateFilm(Film film) {
         String query = "update films set"
                        + " name = ?,"
@@ -54,119 +171,266 @@ public class FilmRepository extends BaseRepository<Film> {
                 film.getName(),
                 film.getDescription(),
                 film.getReleaseDate(),
-                film.getDuration(),
+                film.getDuration() == null ? null : film.getDuration().toSeconds(),
                 film.getMpa().getId(),
                 film.getId());
-
         if (result == 0) {
-            throw new EntityUpdateErrorException("Не удалось обновить пользователя");
+            throw new EntityUpdateErrorException("Не удалось обновить фильм");
         }
+
+        updateLinks("film_genres", "genre_id", film.getId(), film.getGenres().stream()
+                .map(Genre::getId)
+                .collect(Collectors.toSet()));
+        updateLinks("film_directors", "director_id", film.getId(), film.getDirectors().stream()
+                .map(Director::getId)
+                .collect(Collectors.toSet()));
+        afterCommit(() -> filmCache.invalidate(film.getId()));
         return film;
     }
 
-    public void deleteFilm(int id) {
-        String queryLikes = "delete from likes where film_id = ?";
-        jdbc.update(queryLikes, id);
+    /**
+     * Приводит связи фильма в таблице table к набору ids, удаляя и добавляя только разницу.
+     */
+    private void updateLinks(String table, String column, int filmId, Set<Integer> ids) {
+        Set<Integer> current = new HashSet<>(jdbc.queryForList(
+                "select %s from %s where film_id = ?".formatted(column, table), Integer.class, filmId));
+        List<Object[]> removed = current.stream()
+                .filter(id -> !ids.contains(id))
+                .map(id -> new Object[]{filmId, id})
+                .toList();
+        List<Object[]> added = ids.stream()
+                .filter(id -> !current.contains(id))
+                .map(id -> new Object[]{filmId, id})
+                .toList();
+        if (!removed.isEmpty()) {
+            jdbc.batchUpdate("delete from %s where film_id = ? and %s = ?".formatted(table, column), removed);
+        }
+        if (!added.isEmpty()) {
+            jdbc.batchUpdate("insert into %s (film_id, %s) values (?, ?)".formatted(table, column), added);
+        }
+    }
+
+    /**
+     * Помечает фильм удаленным: он сразу пропадает из чтения и проверок существования,
+     * а строки, которые на него ссылаются, потом удаляет DeletionPurger.
+     */
+    public boolean markDeleted(int id) {
+        String query = "update films set deleted = true where id = ? and not deleted";
+        try {
+            boolean marked = update(query, id) > 0;
+            synchronized (filmIds) {
+                filmIds.clear(id);
+            }
+            return marked;
+        } finally {
+            filmCache.invalidate(id);
+        }
+    }
+
+    public List<Integer> getDeletedIds() {
+        String query = "select id from films where deleted";
+        return jdbc.queryForList(query, Integer.class);
+    }
+
+    /**
+     * Удаляет не больше limit строк, ссылающихся на фильм (реакции на отзывы, отзывы, лайки), и возвращает их число.
+     */
+    @Transactional
+    public int purgeFilm(int id, int limit) {
+        int removed = 0;
+        for (String query : PURGE_QUERIES) {
+            if (removed >= limit) {
+                break;
+            }
+            removed += update(query, id, limit - removed);
+        }
+        return removed;
+    }
 
-        String queryGenres = "delete from film_genres where film_id = ?";
-        jdbc.update(queryGenres, id);
+    /**
+     * Удаляет фильм одним запросом: жанры, режиссеры, лайки и отзывы удаляет каскад внешних ключей.
+     */
+    public void deleteFilm(int id) {
+        try {
+            String query = "delete from films where id = ?";
+            jdbc.update(query, id);
 
-        String queryFilms = "delete from films where id = ?";
-        jdbc.update(queryFilms, id);
+            synchronized (filmIds) {
+                filmIds.clear(id);
+            }
+        } finally {
+            filmCache.invalidate(id);
+        }
     }
 
     public List<Film> getAllFilms() {
         String query = "select f.*, m.name as mpa_name"
                 + " from films f"
-                + " inner join mpa m on f.mpa_id = m.id";
-        return getRecords(query);
+                + " inner join mpa m on f.mpa_id = m.id"
+                + " where not f.deleted";
+        return hydrate(getRecords(query));
     }
 
-    public Optional<Film> getFilmById(int id) {
+    /**
+     * Страница фильмов с id больше afterId в порядке id.
+     */
+    public List<Film> getFilmsPage(int limit, int afterId) {
         String query = "select f.*, m.name as mpa_name"
                 + " from films f"
                 + " inner join mpa m on f.mpa_id = m.id"
-                + " where f.id = ?";
-        return getRecord(query, id);
+                + " where f.id > ? and not f.deleted"
+                + " order by f.id"
+                + " limit ?";
+        return hydrate(getRecords(query, afterId, limit));
     }
 
-    public void linkGenresToFilm(Film film, List<Genre> genres) {
-        StringBuilder query = new StringBuilder("insert into film_genres (film_id, genre_id) values");
-        for (int i = 0; i < genres.size(); i++) {
-            query.append(" (%d, %d)".formatted(film.getId(), genres.get(i).getId()));
-            if (i + 1 != genres.size()) {
-                query.append(", ");
+    /**
+     * Передает фильмы с id больше afterId в consumer по мере чтения из базы. Жанры и режиссеры
+     * догружаются пачками по fetchSize фильмов, поэтому в памяти одновременно не больше одной пачки.
+     * Транзакция держит одно соединение на весь поток: без нее каждая догрузка при открытом курсоре
+     * брала бы из пула второе соединение, и параллельные потоки могли исчерпать пул.
+     */
+    @Transactional(readOnly = true)
+    public void streamFilms(int afterId, Consumer<Film> consumer) {
+        String query = "select f.*, m.name as mpa_name"
+                + " from films f"
+                + " inner join mpa m on f.mpa_id = m.id"
+                + " where f.id > ? and not f.deleted"
+                + " order by f.id";
+        List<Film> chunk = new ArrayList<>(fetchSize);
+        jdbc.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(query);
+            ps.setFetchSize(fetchSize);
+            ps.setInt(1, afterId);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            chunk.add(rowMapper.mapRow(rs, rs.getRow()));
+            if (chunk.size() == fetchSize) {
+                hydrate(chunk).forEach(consumer);
+                chunk.clear();
             }
+        });
+        hydrate(chunk).forEach(consumer);
+    }
+
+    public Optional<Film> getFilmById(int id) {
+        String query = "select f.*, m.name as mpa_name"
+                + " from films f"
+                + " inner join mpa m on f.mpa_id = m.id"
+                + " where f.id = ? and not f.deleted";
+        return Optional.ofNullable(filmCache.get(id, key -> {
+            Optional<Film> film = getRecord(query, key);
+            film.ifPresent(value -> hydrate(List.of(value)));
+            return film.orElse(null);
+        }));
+    }
+
+    public List<Film> getFilmsByIds(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
         }
-        jdbc.update(query.toString());
+        String query = "select f.*, m.name as mpa_name"
+                + " from films f"
+                + " inner join mpa m on f.mpa_id = m.id"
+                + " where f.id = any(?) and not f.deleted";
+        Map<Integer, Film> filmsById = filmCache.getAll(ids, missing -> hydrate(getRecords(query, (Object) missing.toArray()))
+                .stream()
+                .collect(Collectors.toMap(Film::getId, Function.identity())));
+
+        return ids.stream()
+                .map(filmsById::get)
+                .filter(Objects::nonNull)
+                .toList();
     }
 
-    public void deleteLinkedGenres(int filmId) {
-        String query = "delete from film_genres where film_id = ?";
-        delete(query, filmId);
+    /**
+     * Лайки, кроме лайков удаленных, но еще не дочищенных пользователей и фильмов.
+     */
+    public void forEachLike(BiConsumer<Integer, Integer> consumer) {
+        String query = "select l.film_id, l.user_id from likes l"
+                + " inner join films f on f.id = l.film_id"
+                + " inner join users u on u.id = l.user_id"
+                + " where not f.deleted and not u.deleted";
+        jdbc.query(query, (RowCallbackHandler) rs -> consumer.accept(rs.getInt("film_id"), rs.getInt("user_id")));
     }
 
-    public void addLike(int filmId, int userId) {
-        String query = "MERGE INTO likes (film_id, user_id) KEY (film_id, user_id) VALUES (?, ?)";
-        jdbc.update(query, filmId, userId);
+    @Transactional
+    public boolean addLike(int filmId, int userId) {
+        String query = "insert into likes (film_id, user_id)"
+                + " select ?, ? where not exists (select 1 from likes where film_id = ? and user_id = ?)";
+        int inserted;
+        try {
+            inserted = jdbc.update(query, filmId, userId, filmId, userId);
+        } catch (DuplicateKeyException e) {
+            inserted = 0;
+        }
+
+        if (inserted > 0) {
+            jdbc.update("update films set like_count = like_count + 1 where id = ?", filmId);
+        }
+        return inserted > 0;
     }
 
-    public void removeLike(int filmId, int userId) {
+    @Transactional
+    public boolean removeLike(int filmId, int userId) {
         String query = "delete from likes where film_id = ? and user_id = ?";
-        jdbc.update(query, filmId, userId);
+        int deleted = jdbc.update(query, filmId, userId);
+
+        if (deleted > 0) {
+            jdbc.update("update films set like_count = like_count - 1 where id = ?", filmId);
+        }
+        return deleted > 0;
+    }
+
+    /**
+     * Исправляет like_count у фильмов, где он разошелся с таблицей likes, и возвращает поправки по id фильма.
+     * Лайки помеченных удаленными пользователей не считаются: их снимают со счетчиков при пометке.
+     * Строки фильмов блокируются до подсчета, поэтому поправка не включает лайки, поставленные параллельно:
+     * их +1 к like_count ждет блокировку и применяется уже к исправленному значению.
+     * Исправленные фильмы вытесняются из кэша, чтобы их можно было перечитать с новым числом лайков.
+     */
+    @Transactional
+    public Map<Integer, Integer> reconcileLikeCounts() {
+        String select = "select f.id from films f where like_count <> " + LIKES_OF_ACTIVE_USERS;
+        Object[] ids = jdbc.queryForList(select, Integer.class).toArray();
+        if (ids.length == 0) {
+            return Map.of();
+        }
+        String counts = "select id, like_count from films where id = any(?)";
+        Map<Integer, Integer> deltas = new HashMap<>();
+        jdbc.query(counts + " for update", (RowCallbackHandler) rs ->
+                deltas.put(rs.getInt("id"), -rs.getInt("like_count")), (Object) ids);
+        String query = "update films f set like_count = " + LIKES_OF_ACTIVE_USERS + " where id = any(?)";
+        jdbc.update(query, (Object) ids);
+        jdbc.query(counts, (RowCallbackHandler) rs ->
+                deltas.merge(rs.getInt("id"), rs.getInt("like_count"), Integer::sum), (Object) ids);
+        deltas.values().removeIf(delta -> delta == 0);
+        afterCommit(() -> filmCache.invalidateAll(deltas.keySet()));
+        return deltas;
     }
 
+    /**
+     * Год выпуска проверяется диапазоном дат, чтобы поиск шел по индексу на release_date,
+     * фильмы жанра берутся из индекса film_genres по genre_id.
+     */
     public List<Film> getMostPopular(Integer count, Integer genreId, Integer year) {
-        String onlyPopularQuery = """
-                select f.*, coalesce(q.like_count, 0) AS counter, m.name as mpa_name
-                from films f
-                left join mpa m on f.mpa_id = m.id
-                left join (
-                    select film_id, count(user_id) as like_count
-                    from likes
-                    group by film_id
-                ) q on q.film_id = f.id
-                order by counter desc
-                limit ?
-                """;
-        String baseQuery = """
-                select f.*, coalesce(q.like_count, 0) AS counter, m.name AS mpa_name
-                from films f
-                left join mpa m ON f.mpa_id = m.id
-                left join (
-                    select film_id, count(user_id) AS like_count
-                    from likes
-                    group by film_id
-                    ) q ON q.film_id = f.id
-                """;
-        String genreJoins = """
-                left join film_genres fg ON f.id = fg.film_id
-                left join genres g ON fg.genre_id = g.id
-                """;
-        String onlyGenreQuery = baseQuery + genreJoins + """
-                where fg.genre_id = ?
-                order by counter DESC
-                limit ?
-                """;
-        String onlyYearQuery = baseQuery + """
-                where EXTRACT(YEAR FROM f.release_date) = ?
-                order by counter DESC
-                limit ?
-                """;
-        String genreYearQuery = baseQuery + genreJoins + """
-                where fg.genre_id = ?
-                    AND EXTRACT(YEAR FROM f.release_date) = ?
-                order by counter DESC
-                limit ?
-                """;
-        if (year == null && genreId == null) {
-            return getRecords(onlyPopularQuery, count);
-        } else if (genreId == null) {
-            return getRecords(onlyYearQuery, year, count);
-        } else if (year == null) {
-            return getRecords(onlyGenreQuery, genreId, count);
+        StringBuilder query = new StringBuilder("select f.*, m.name as mpa_name"
+                + " from films f"
+                + " left join mpa m on f.mpa_id = m.id");
+        List<String> conditions = new ArrayList<>(List.of("not f.deleted"));
+        List<Object> params = new ArrayList<>();
+        if (genreId != null) {
+            conditions.add("f.id in (select fg.film_id from film_genres fg where fg.genre_id = ?)");
+            params.add(genreId);
+        }
+        if (year != null) {
+            conditions.add("f.release_date >= ? and f.release_date < ?");
+            params.addAll(List.of(LocalDate.ofYearDay(year, 1), LocalDate.ofYearDay(year + 1, 1)));
         }
-        return getRecords(genreYearQuery, genreId, year, count);
+        query.append(" where ").append(String.join(" and ", conditions));
+        query.append(" order by f.like_count desc, f.id limit ?");
+        params.add(count);
+        return hydrate(getRecords(query.toString(), params.toArray()));
     }
 
     public List<Film> getRecommendations(int id) {
@@ -198,46 +462,20 @@ public class FilmRepository extends BaseRepository<Film> {
                     group by l.film_id
                     order by counter DESC
                 ) q ON q.film_id = f.id
+                where not f.deleted
                 order by q.counter DESC;
                 """;
-        return getRecords(query, id, id, id);
-    }
-
-    public void deleteLinkedDirectors(int filmId) {
-        String query = "DELETE FROM film_directors WHERE film_id = ?";
-        delete(query, filmId);
-    }
-
-    public void linkDirectorsToFilm(int filmId, List<Integer> directorIds) {
-        if (directorIds.isEmpty()) return;
-        StringBuilder query = new StringBuilder("INSERT INTO film_directors (film_id, director_id) VALUES ");
-        for (int i = 0; i < directorIds.size(); i++) {
-            query.append("(?, ?)");
-            if (i < directorIds.size() - 1) {
-                query.append(", ");
-            }
-        }
-        Object[] params = new Object[directorIds.size() * 2];
-        for (int i = 0; i < directorIds.size(); i++) {
-            params[i * 2] = filmId;
-            params[i * 2 + 1] = directorIds.get(i);
-        }
-        jdbc.update(query.toString(), params);
+        return hydrate(getRecords(query, id, id, id));
     }
 
     private static final String BASE_FILM_DIRECTOR_QUERY = """
     SELECT f.id AS film_id, f.name, f.description, f.release_date, f.duration,
            f.mpa_id, m.name AS mpa_name,
-           COALESCE(lc.like_count, 0) AS like_count
+           f.like_count
     FROM films AS f
     INNER JOIN mpa AS m ON f.mpa_id = m.id
     INNER JOIN film_directors AS fd ON f.id = fd.film_id
-    LEFT JOIN (
-        SELECT film_id, COUNT(user_id) AS like_count
-        FROM likes
-        GROUP BY film_id
-    ) AS lc ON f.id = lc.film_id
-    WHERE fd.director_id = ?
+    WHERE fd.director_id = ? AND NOT f.deleted
     """;
 
     private static final String ORDER_BY_YEAR = " ORDER BY f.release_date ASC";
@@ -245,12 +483,12 @@ public class FilmRepository extends BaseRepository<Film> {
 
     public List<Film> getDirectorFilmsSortedByYear(int directorId) {
         String query = BASE_FILM_DIRECTOR_QUERY + ORDER_BY_YEAR;
-        return jdbc.query(query, filmWithLikesRowMapper, directorId);
+        return hydrate(jdbc.query(query, filmWithLikesRowMapper, directorId));
     }
 
     public List<Film> getDirectorFilmsSortedByLikes(int directorId) {
         String query = BASE_FILM_DIRECTOR_QUERY + ORDER_BY_LIKES;
-        return jdbc.query(query, filmWithLikesRowMapper, directorId);
+        return hydrate(jdbc.query(query, filmWithLikesRowMapper, directorId));
     }
 
     public List<Film> getDirectorFilmsSorted(int directorId, String sortBy) {
@@ -262,12 +500,9 @@ public class FilmRepository extends BaseRepository<Film> {
     }
 
     public List<Film> getCommonFilms(int userId, int friendId) {
-        String query = "SELECT f.*, m.name AS mpa_name, c.like_count " +
+        String query = "SELECT f.*, m.name AS mpa_name " +
                        "FROM films f " +
                        "JOIN mpa m ON f.mpa_id = m.id " +
-                       "JOIN (SELECT film_id, COUNT(user_id) AS like_count " +
-                       "      FROM likes " +
-                       "      GROUP BY film_id) c ON c.film_id = f.id " +
                        "WHERE f.id IN (" +
                        "    SELECT l1.film_id " +
                        "    FROM likes l1 " +
@@ -278,42 +513,84 @@ public class FilmRepository extends BaseRepository<Film> {
                        "        WHERE l2.user_id = ?" +
                        "    )" +
                        ") " +
-                       "ORDER BY c.like_count DESC";
+                       "AND NOT f.deleted " +
+                       "ORDER BY f.like_count DESC";
 
-        return getRecords(query, userId, friendId);
+        return hydrate(getRecords(query, userId, friendId));
     }
 
     public List<Film> searchFilms(String phrase, Set<String> fields) {
 
         String query = """
-                select f.*, m.name AS mpa_name
+                select distinct f.*, m.name AS mpa_name
                 from films f
                 left join mpa m ON f.mpa_id = m.id
                 left join film_directors fd on f.id = fd.film_id
                 left join directors d on d.id = fd.director_id
+                where not f.deleted
                 """;
         String order = " order by f.id desc";
         String filmCondition = "LOWER(f.name) like LOWER(?)";
         String directorCondition = "LOWER(d.name) like LOWER(?)";
 
         if (fields.size() == 1 && fields.contains("title")) {
-            query += (" WHERE " + filmCondition);
+            query += (" AND " + filmCondition);
             query += order;
-            return getRecords(query, "%" + phrase + "%");
+            return hydrate(getRecords(query, "%" + phrase + "%"));
         }
 
         if (fields.size() == 1 && fields.contains("director")) {
-            query += (" WHERE " + directorCondition);
+            query += (" AND " + directorCondition);
             query += order;
-            return getRecords(query, "%" + phrase + "%");
+            return hydrate(getRecords(query, "%" + phrase + "%"));
         }
 
         if (fields.contains("title") && fields.contains("director")) {
-            query += (" WHERE " + filmCondition + " OR " + directorCondition);
+            query += (" AND (" + filmCondition + " OR " + directorCondition + ")");
             query += order;
-            return getRecords(query, "%" + phrase + "%", "%" + phrase + "%");
+            return hydrate(getRecords(query, "%" + phrase + "%", "%" + phrase + "%"));
+        }
+
+        return hydrate(getRecords(query));
+    }
+
+    private List<Film> hydrate(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+
+        Map<Integer, List<Film>> filmsById = new HashMap<>();
+        for (Film film : films) {
+            filmsById.computeIfAbsent(film.getId(), id -> new ArrayList<>()).add(film);
         }
+        Object[] filmIds = filmsById.keySet().toArray();
+
+        String genresQuery = "select fg.film_id, g.id, g.name"
+                + " from film_genres fg"
+                + " inner join genres g on fg.genre_id = g.id"
+                + " where fg.film_id = any(?)";
+        jdbc.query(genresQuery, (RowCallbackHandler) rs -> {
+            for (Film film : filmsById.get(rs.getInt("film_id"))) {
+                Genre genre = new Genre();
+                genre.setId(rs.getInt("id"));
+                genre.setName(rs.getString("name"));
+                film.getGenres().add(genre);
+            }
+        }, (Object) filmIds);
+
+        String directorsQuery = "select fd.film_id, d.id, d.name"
+                + " from film_directors fd"
+                + " inner join directors d on fd.director_id = d.id"
+                + " where fd.film_id = any(?)";
+        jdbc.query(directorsQuery, (RowCallbackHandler) rs -> {
+            for (Film film : filmsById.get(rs.getInt("film_id"))) {
+                film.getDirectors().add(Director.builder()
+                        .id(rs.getInt("id"))
+                        .name(rs.getString("name"))
+                        .build());
+            }
+        }, (Object) filmIds);
 
-        return getRecords(query);
+        return films;
     }
 }
@@ -0,0 +1,119 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Граф дружбы в памяти: для каждого пользователя отсортированный массив id друзей
+ * и обратный массив - id тех, кто добавил его в друзья.
+ * Массивы не изменяются на месте, при записи заменяются копией, поэтому читать можно без блокировок.
+ * Состояние меняют только FriendshipRepository и UserRepository вместе с таблицей user_friends.
+ */
+@Component
+public class FriendshipGraph {
+    private static final int[] EMPTY = new int[0];
+
+    private final Map<Integer, int[]> friends = new ConcurrentHashMap<>();
+    private final Map<Integer, int[]> followers = new ConcurrentHashMap<>();
+
+    public int[] getFriendIds(int userId) {
+        return friends.getOrDefault(userId, EMPTY);
+    }
+
+    public int[] getFollowerIds(int userId) {
+        return followers.getOrDefault(userId, EMPTY);
+    }
+
+    public int[] getCommonFriendIds(int userId, int otherUserId) {
+        int[] first = getFriendIds(userId);
+        int[] second = getFriendIds(otherUserId);
+        int[] common = new int[Math.min(first.length, second.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                common[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(common, size);
+    }
+
+    synchronized void load(Map<Integer, int[]> adjacency) {
+        friends.clear();
+        followers.clear();
+        Map<Integer, int[]> reverse = new HashMap<>();
+        Map<Integer, Integer> reverseSizes = new HashMap<>();
+        adjacency.forEach((userId, friendIds) -> {
+            int[] sorted = friendIds.clone();
+            Arrays.sort(sorted);
+            friends.put(userId, sorted);
+            for (int friendId : sorted) {
+                reverseSizes.merge(friendId, 1, Integer::sum);
+            }
+        });
+        reverseSizes.forEach((userId, size) -> reverse.put(userId, new int[size]));
+        Map<Integer, Integer> filled = new HashMap<>();
+        friends.keySet().stream().sorted().forEach(userId -> {
+            for (int friendId : friends.get(userId)) {
+                reverse.get(friendId)[filled.merge(friendId, 1, Integer::sum) - 1] = userId;
+            }
+        });
+        followers.putAll(reverse);
+    }
+
+    synchronized void addFriend(int userId, int friendId) {
+        friends.put(userId, insert(getFriendIds(userId), friendId));
+        followers.put(friendId, insert(getFollowerIds(friendId), userId));
+    }
+
+    synchronized void removeFriend(int userId, int friendId) {
+        friends.put(userId, remove(getFriendIds(userId), friendId));
+        followers.put(friendId, remove(getFollowerIds(friendId), userId));
+    }
+
+    synchronized void removeUser(int userId) {
+        for (int friendId : getFriendIds(userId)) {
+            followers.put(friendId, remove(getFollowerIds(friendId), userId));
+        }
+        for (int followerId : getFollowerIds(userId)) {
+            friends.put(followerId, remove(getFriendIds(followerId), userId));
+        }
+        friends.remove(userId);
+        followers.remove(userId);
+    }
+
+    private static int[] insert(int[] ids, int id) {
+        int position = Arrays.binarySearch(ids, id);
+        if (position >= 0) {
+            return ids;
+        }
+        position = -position - 1;
+        int[] result = new int[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, position);
+        result[position] = id;
+        System.arraycopy(ids, position, result, position + 1, ids.length - position);
+        return result;
+    }
+
+    private static int[] remove(int[] ids, int id) {
+        int position = Arrays.binarySearch(ids, id);
+        if (position < 0) {
+            return ids;
+        }
+        int[] result = new int[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, position);
+        System.arraycopy(ids, position + 1, result, position, ids.length - position - 1);
+        return result;
+    }
+}
@@ -1,19 +1,62 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
 import ru.yandex.practicum.filmorate.model.Friendship;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+@Slf4j
 @Repository
 public class FriendshipRepository extends BaseRepository<Friendship> {
+    private final FriendshipGraph graph;
 
-    public FriendshipRepository(JdbcTemplate jdbc, RowMapper<Friendship> rowMapper) {
+    public FriendshipRepository(JdbcTemplate jdbc, RowMapper<Friendship> rowMapper, FriendshipGraph graph) {
         super(jdbc, rowMapper);
+        this.graph = graph;
+    }
+
+    @PostConstruct
+    void loadGraph() {
+        long start = System.currentTimeMillis();
+        Map<Integer, int[]> adjacency = new HashMap<>();
+        Map<Integer, Integer> sizes = new HashMap<>();
+        String query = "select uf.user_id, uf.friend_id from user_friends uf"
+                + " inner join users u on u.id = uf.user_id"
+                + " inner join users f on f.id = uf.friend_id"
+                + " where not u.deleted and not f.deleted";
+        jdbc.query(query, (RowCallbackHandler) rs -> {
+            int userId = rs.getInt("user_id");
+            int size = sizes.merge(userId, 1, Integer::sum);
+            int[] friendIds = adjacency.computeIfAbsent(userId, id -> new int[4]);
+            if (size > friendIds.length) {
+                friendIds = Arrays.copyOf(friendIds, friendIds.length * 2);
+                adjacency.put(userId, friendIds);
+            }
+            friendIds[size - 1] = rs.getInt("friend_id");
+        });
+        adjacency.replaceAll((userId, friendIds) -> Arrays.copyOf(friendIds, sizes.get(userId)));
+        graph.load(adjacency);
+        log.info("Граф дружбы загружен: {} пользователей за {} мс", adjacency.size(), System.currentTimeMillis() - start);
+    }
+
+    public int[] getFriendIds(int userId) {
+        return graph.getFriendIds(userId);
+    }
+
+    public int[] getFollowerIds(int userId) {
+        return graph.getFollowerIds(userId);
+    }
+
+    public int[] getCommonFriendIds(int userId, int otherUserId) {
+        return graph.getCommonFriendIds(userId, otherUserId);
     }
 
     public void saveFriendship(Friendship friendship) {
@@ -24,33 +67,15 @@ public class FriendshipRepository extends BaseRepository<Friendship> {
                 friendship.getFriend().getId(),
                 friendship.getIsFriend()
         );
-    }
-
-    public List<Friendship> getFriendshipsByUserId(int id) {
-        String query = "select uf.id, uf.user_id, uf.friend_id, uf.is_friend,"
-                + " u.login as user_login, u.email as user_email, u.name as user_name, u.birthday as user_birthday,"
-                + " f.login as friend_login, f.email as friend_email, f.name as friend_name, f.birthday as friend_birthday"
-                + " from user_friends uf"
-                + " inner join users u on uf.user_id = u.id"
-                + " inner join users f on uf.friend_id = f.id"
-                + " where u.id = ?";
-        return getRecords(query, id);
-    }
-
-    public Optional<Friendship> getFriendship(int userId, int friendId) {
-        String query = "select uf.id, uf.user_id, uf.friend_id, uf.is_friend,"
-                + " u.login as user_login, u.email as user_email, u.name as user_name, u.birthday as user_birthday,"
-                + " f.login as friend_login, f.email as friend_email, f.name as friend_name, f.birthday as friend_birthday"
-                + " from user_friends uf"
-                + " inner join users u on uf.user_id = u.id"
-                + " inner join users f on uf.friend_id = f.id"
-                + " where u.id = ?"
-                + " and f.id = ?";
-        return getRecord(query, userId, friendId);
+        graph.addFriend(friendship.getUser().getId(), friendship.getFriend().getId());
     }
 
     public boolean deleteFriendship(Friendship friendship) {
         String query = "delete from user_friends where user_id = ? and friend_id = ?";
-        return delete(query, friendship.getUser().getId(), friendship.getFriend().getId());
+        boolean deleted = delete(query, friendship.getUser().getId(), friendship.getFriend().getId());
+        if (deleted) {
+            graph.removeFriend(friendship.getUser().getId(), friendship.getFriend().getId());
+        }
+        return deleted;
     }
 }
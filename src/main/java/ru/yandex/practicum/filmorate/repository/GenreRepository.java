@@ -1,29 +1,54 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
 import ru.yandex.practicum.filmorate.model.Genre;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 
 @Repository
 public class GenreRepository extends BaseRepository<Genre> {
-    public GenreRepository(JdbcTemplate jdbc, RowMapper<Genre> rowMapper) {
+    private final Cache<Integer, Genre> cache;
+
+    public GenreRepository(JdbcTemplate jdbc, RowMapper<Genre> rowMapper,
+                           @Value("${filmorate.cache.reference.max-size:1000}") long maxSize) {
         super(jdbc, rowMapper);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .build();
     }
 
     public List<Genre> getAllGenres() {
         String query = "select * from genres order by id";
-        return getRecords(query);
+        List<Genre> genres = getRecords(query);
+        genres.forEach(genre -> cache.put(genre.getId(), genre));
+        return genres;
     }
 
     public Optional<Genre> getGenreById(int id) {
         String query = "select * from genres where id = ?";
-        return getRecord(query, id);
+        return Optional.ofNullable(cache.get(id, key -> getRecord(query, key).orElse(null)));
+    }
+
+    /**
+     * Жанры по списку id; отсутствующих в базе id в результате нет.
+     */
+    public Map<Integer, Genre> getGenresByIds(Collection<Integer> ids) {
+        String query = "select * from genres where id = any(?)";
+        return cache.getAll(ids, missing -> getRecords(query, (Object) missing.toArray())
+                .stream()
+                .collect(Collectors.toMap(Genre::getId, Function.identity())));
     }
 
     public List<Genre> getGenresByFilmId(int id) {
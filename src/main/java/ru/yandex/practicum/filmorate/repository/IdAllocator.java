@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Выдает id для новых строк из памяти, резервируя их в базе блоками (схема hi/lo).
+ * Один запрос next value к последовательности занимает весь блок - столько id, каков шаг последовательности.
+ * Вставка без id (default next value) тоже занимает целый блок, поэтому с выданными здесь id не пересекается.
+ * В пределах одного экземпляра приложения id возрастают.
+ */
+@Component
+public class IdAllocator {
+    private final JdbcTemplate jdbc;
+    private final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IdAllocator(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    public long next(String sequence) {
+        return next(sequence, 1)[0];
+    }
+
+    public long[] next(String sequence, int count) {
+        return blocks.computeIfAbsent(sequence, Block::new).take(count);
+    }
+
+    private class Block {
+        private final String sequence;
+        private final long size;
+        private long next;
+        private long end;
+
+        Block(String sequence) {
+            this.sequence = sequence;
+            this.size = jdbc.queryForObject(
+                    "select increment from information_schema.sequences where sequence_name = upper(?)",
+                    Long.class, sequence);
+        }
+
+        synchronized long[] take(int count) {
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                if (next == end) {
+                    next = jdbc.queryForObject("select next value for " + sequence, Long.class);
+                    end = next + size;
+                }
+                ids[i] = next++;
+            }
+            return ids;
+        }
+    }
+}
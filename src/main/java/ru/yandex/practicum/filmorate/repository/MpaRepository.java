@@ -1,5 +1,8 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
@@ -12,17 +15,25 @@ import java.util.Optional;
 
 @Repository
 public class MpaRepository extends BaseRepository<Mpa> {
-    public MpaRepository(JdbcTemplate jdbc, RowMapper<Mpa> rowMapper) {
+    private final Cache<Integer, Mpa> cache;
+
+    public MpaRepository(JdbcTemplate jdbc, RowMapper<Mpa> rowMapper,
+                         @Value("${filmorate.cache.reference.max-size:1000}") long maxSize) {
         super(jdbc, rowMapper);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .build();
     }
 
     public List<Mpa> getAllMpa() {
         String query = "select * from mpa order by id";
-        return getRecords(query);
+        List<Mpa> mpa = getRecords(query);
+        mpa.forEach(rating -> cache.put(rating.getId(), rating));
+        return mpa;
     }
 
     public Optional<Mpa> getMpaById(int id) {
         String query = "select * from mpa where id = ?";
-        return getRecord(query, id);
+        return Optional.ofNullable(cache.get(id, key -> getRecord(query, key).orElse(null)));
     }
 }
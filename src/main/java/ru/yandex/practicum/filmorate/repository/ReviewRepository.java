@@ -3,30 +3,83 @@ package ru.yandex.practicum.filmorate.repository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.EntityUpdateErrorException;
 import ru.yandex.practicum.filmorate.model.Review;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Slf4j
 @Repository
 public class ReviewRepository extends BaseRepository<Review> {
+    private static final String ID_SEQUENCE = "reviews_id_seq";
+    /**
+     * Отзывы удаленных пользователей и к удаленным фильмам не показываются, пока их не удалит DeletionPurger.
+     * Условие стоит в запросе, а не после него, чтобы limit отсчитывался по видимым отзывам.
+     */
+    private static final String VISIBLE_REVIEWS = "select r.* from reviews r " +
+                                                  "join users u on u.id = r.user_id and not u.deleted " +
+                                                  "join films f on f.id = r.film_id and not f.deleted ";
+    private static final String USEFUL_FROM_REACTIONS = "(select coalesce(sum(case when rl.is_positive"
+            + " then 1 else -1 end), 0) from review_likes rl where rl.review_id = r.review_id)";
+
+    private final IdAllocator idAllocator;
+
+    public ReviewRepository(JdbcTemplate jdbc, RowMapper<Review> rowMapper, IdAllocator idAllocator) {
+        super(jdbc, rowMapper, "reviews", "review_id");
+        this.idAllocator = idAllocator;
+    }
+
+    public List<Review> getAllReviews(int count, int[] excludedIds) {
+        String query = VISIBLE_REVIEWS + "where r.review_id <> all(?) " +
+                       "order by r.useful desc, r.review_id asc limit ?";
+        return getRecords(query, (Object) Arrays.stream(excludedIds).boxed().toArray(), count);
+    }
+
+    public List<Review> getAllReviewsByFilmId(int filmId, int count, int[] excludedIds) {
+        String query = VISIBLE_REVIEWS + "where r.film_id = ? and r.review_id <> all(?) " +
+                       "order by r.useful desc, r.review_id asc limit ?";
+        return getRecords(query, filmId, (Object) Arrays.stream(excludedIds).boxed().toArray(), count);
+    }
+
+    /**
+     * Страница отзывов, идущих после отзыва с рейтингом afterUseful и id afterId
+     * в порядке useful desc, review_id asc. Условие useful <= ? позволяет читать индекс с нужного места.
+     */
+    public List<Review> getReviewsAfter(int count, int afterUseful, int afterId, int[] excludedIds) {
+        String query = VISIBLE_REVIEWS + "where r.useful <= ? and (r.useful < ? or r.review_id > ?) " +
+                       "and r.review_id <> all(?) order by r.useful desc, r.review_id asc limit ?";
+        return getRecords(query, afterUseful, afterUseful, afterId,
+                (Object) Arrays.stream(excludedIds).boxed().toArray(), count);
+    }
 
-    public ReviewRepository(JdbcTemplate jdbc, RowMapper<Review> rowMapper) {
-        super(jdbc, rowMapper);
+    public List<Review> getReviewsByFilmIdAfter(int filmId, int count, int afterUseful, int afterId,
+                                                int[] excludedIds) {
+        String query = VISIBLE_REVIEWS + "where r.film_id = ? and r.useful <= ? " +
+                       "and (r.useful < ? or r.review_id > ?) " +
+                       "and r.review_id <> all(?) order by r.useful desc, r.review_id asc limit ?";
+        return getRecords(query, filmId, afterUseful, afterUseful, afterId,
+                (Object) Arrays.stream(excludedIds).boxed().toArray(), count);
     }
 
-    public List<Review> getAllReviews(int count) {
-        String query = "select * from reviews order by useful desc, review_id asc limit ?";
-        return getRecords(query, count);
+    /**
+     * Отзывы с id из ids, рейтинг которых в базе не выше maxUseful.
+     */
+    public List<Review> getReviewsByIds(int[] ids, int maxUseful) {
+        String query = VISIBLE_REVIEWS + "where r.review_id = any(?) and r.useful <= ?";
+        return getRecords(query, (Object) Arrays.stream(ids).boxed().toArray(), maxUseful);
     }
 
-    public List<Review> getAllReviewsByFilmId(int filmId, int count) {
-        String query = "select * from reviews where film_id = ? order by useful desc, review_id asc limit ?";
-        return getRecords(query, filmId, count);
+    public List<Review> getReviewsByFilmIdAndIds(int filmId, int[] ids, int maxUseful) {
+        String query = VISIBLE_REVIEWS + "where r.film_id = ? and r.review_id = any(?) and r.useful <= ?";
+        return getRecords(query, filmId, (Object) Arrays.stream(ids).boxed().toArray(), maxUseful);
     }
 
     public Optional<Review> getReviewById(int id) {
@@ -35,15 +88,17 @@ public class ReviewRepository extends BaseRepository<Review> {
     }
 
     public Review addReview(Review review) {
-        String query = "insert into reviews (content, is_positive, user_id, film_id, useful) " +
-                       "values (?, ?, ?, ?, ?)";
-        int id = insert(query,
+        String query = "insert into reviews (review_id, content, is_positive, user_id, film_id, useful) " +
+                       "values (?, ?, ?, ?, ?, ?)";
+        int id = (int) idAllocator.next(ID_SEQUENCE);
+        update(query,
+                id,
                 review.getContent(),
                 review.getIsPositive(),
                 review.getUserId(),
                 review.getFilmId(),
                 review.getUseful()
-        ).intValue();
+        );
         review.setReviewId(id);
         return review;
     }
@@ -74,94 +129,67 @@ public class ReviewRepository extends BaseRepository<Review> {
         delete(delReview, id);
     }
 
-    public void addLikeReview(int reviewId, int userId) {
-        String checkExistsQuery = "select is_positive from review_likes where review_id = ? and user_id = ?";
-        try {
-            Boolean currentReaction = jdbc.queryForObject(checkExistsQuery, Boolean.class, reviewId, userId);
-
-            if (!currentReaction) {
-                String updateReactionQuery = "update review_likes set is_positive = true where review_id = ? and user_id = ?";
-                update(updateReactionQuery, reviewId, userId);
-                String updateUsefulQuery = "update reviews set useful = useful + 2 where review_id = ?";
-                update(updateUsefulQuery, reviewId);
-            }
-        } catch (EmptyResultDataAccessException e) {
-            String insertQuery = "insert into review_likes (review_id, user_id, is_positive) values (?, ?, true)";
-            update(insertQuery, reviewId, userId);
-            String updateUsefulQuery = "update reviews set useful = useful + 1 where review_id = ?";
-            update(updateUsefulQuery, reviewId);
+    /**
+     * Ставит пользователю реакцию на отзыв и возвращает прежнюю. Строка реакции блокируется до конца транзакции.
+     * Если реакции еще не было и ее одновременно ставят два запроса, второй получит DuplicateKeyException.
+     */
+    @Transactional
+    public Optional<Boolean> putReaction(int reviewId, int userId, boolean isPositive) {
+        String selectQuery = "select is_positive from review_likes where review_id = ? and user_id = ? for update";
+        List<Boolean> current = jdbc.queryForList(selectQuery, Boolean.class, reviewId, userId);
+        if (current.isEmpty()) {
+            String insertQuery = "insert into review_likes (review_id, user_id, is_positive) values (?, ?, ?)";
+            update(insertQuery, reviewId, userId, isPositive);
+            return Optional.empty();
         }
-    }
 
-    public void delLikeReview(int reviewId, int userId) {
-        String checkExistsQuery = "select is_positive from review_likes where review_id = ? and user_id = ?";
-        try {
-            Boolean currentReaction = jdbc.queryForObject(checkExistsQuery, Boolean.class, reviewId, userId);
-
-            if (currentReaction) {
-                String deleteReactionQuery = "delete from review_likes where review_id = ? and user_id = ?";
-                update(deleteReactionQuery, reviewId, userId);
-                String updateUsefulQuery = "update reviews set useful = useful - 1 where review_id = ?";
-                update(updateUsefulQuery, reviewId);
-            }
-        } catch (EmptyResultDataAccessException e) {
-            log.debug("Попытка удаления лайка: реакция пользователя {} на отзыв {} не найдена.", userId, reviewId);
+        if (current.get(0) != isPositive) {
+            String updateQuery = "update review_likes set is_positive = ? where review_id = ? and user_id = ?";
+            update(updateQuery, isPositive, reviewId, userId);
         }
+        return Optional.of(current.get(0));
     }
 
-    public void addDislikeReview(int reviewId, int userId) {
-        String checkExistsQuery = "select is_positive from review_likes where review_id = ? and user_id = ?";
-        try {
-            Boolean currentReaction = jdbc.queryForObject(checkExistsQuery, Boolean.class, reviewId, userId);
-
-            if (currentReaction) {
-                String updateReactionQuery = "update review_likes set is_positive = false where review_id = ? and user_id = ?";
-                update(updateReactionQuery, reviewId, userId);
-                String updateUsefulQuery = "update reviews set useful = useful - 2 where review_id = ?";
-                update(updateUsefulQuery, reviewId);
-            }
-        } catch (EmptyResultDataAccessException e) {
-            String insertQuery = "insert into review_likes (review_id, user_id, is_positive) values (?, ?, false)";
-            update(insertQuery, reviewId, userId);
-            String updateUsefulQuery = "update reviews set useful = useful - 1 where review_id = ?";
-            update(updateUsefulQuery, reviewId);
-        }
+    /**
+     * Снимает реакцию пользователя, только если она совпадает с isPositive. Возвращает true, если реакция снята.
+     */
+    public boolean removeReaction(int reviewId, int userId, boolean isPositive) {
+        String deleteQuery = "delete from review_likes where review_id = ? and user_id = ? and is_positive = ?";
+        return update(deleteQuery, reviewId, userId, isPositive) > 0;
     }
 
-    public void delDislikeReview(int reviewId, int userId) {
-        String checkExistsQuery = "select is_positive from review_likes where review_id = ? and user_id = ?";
-        try {
-            Boolean currentReaction = jdbc.queryForObject(checkExistsQuery, Boolean.class, reviewId, userId);
-
-            if (!currentReaction) {
-                String deleteReactionQuery = "delete from review_likes where review_id = ? and user_id = ?";
-                update(deleteReactionQuery, reviewId, userId);
-                String updateUsefulQuery = "update reviews set useful = useful + 1 where review_id = ?";
-                update(updateUsefulQuery, reviewId);
-            }
-        } catch (EmptyResultDataAccessException e) {
-            String insertQuery = "insert into review_likes (review_id, user_id, is_positive) values (?, ?, false)";
-            update(insertQuery, reviewId, userId);
-            String updateUsefulQuery = "update reviews set useful = useful - 1 where review_id = ?";
-            update(updateUsefulQuery, reviewId);
-        }
+    @Transactional
+    public void addUseful(Map<Integer, Integer> deltas) {
+        String query = "update reviews set useful = useful + ? where review_id = ?";
+        jdbc.batchUpdate(query, deltas.entrySet().stream()
+                .map(delta -> new Object[]{delta.getValue(), delta.getKey()})
+                .toList());
     }
 
-    public void updateReviewReaction(int reviewId, int userId, boolean isPositive) {
-        String sql = "update review_likes set is_positive = ? where review_id = ? and user_id = ?";
-        int result = update(sql, isPositive, reviewId, userId);
-
-        if (result == 0) {
-            throw new EntityUpdateErrorException("Не удалось обновить реакцию пользователя");
-        }
-
-        String updateUseful;
-        if (isPositive) {
-            updateUseful = "update reviews set useful = useful + 2 where review_id = ?";
-        } else {
-            updateUseful = "update reviews set useful = useful - 2 where review_id = ?";
+    /**
+     * Исправляет useful у отзывов, где он разошелся с таблицей review_likes, кроме excludedIds,
+     * и возвращает поправки по id отзыва. Строки отзывов блокируются до подсчета, поэтому поправка
+     * не включает реакции, которые параллельно снимает DeletionPurger вместе с поправкой useful.
+     */
+    @Transactional
+    public Map<Integer, Integer> reconcileUseful(int[] excludedIds) {
+        Object[] excluded = Arrays.stream(excludedIds).boxed().toArray();
+        String select = "select r.review_id from reviews r where r.review_id <> all(?) and r.useful <> "
+                + USEFUL_FROM_REACTIONS;
+        Object[] ids = jdbc.queryForList(select, Integer.class, (Object) excluded).toArray();
+        if (ids.length == 0) {
+            return Map.of();
         }
-        update(updateUseful, reviewId);
+        String useful = "select review_id, useful from reviews where review_id = any(?)";
+        Map<Integer, Integer> deltas = new HashMap<>();
+        jdbc.query(useful + " for update", (RowCallbackHandler) rs ->
+                deltas.put(rs.getInt("review_id"), -rs.getInt("useful")), (Object) ids);
+        String query = "update reviews r set useful = " + USEFUL_FROM_REACTIONS + " where review_id = any(?)";
+        jdbc.update(query, (Object) ids);
+        jdbc.query(useful, (RowCallbackHandler) rs ->
+                deltas.merge(rs.getInt("review_id"), rs.getInt("useful"), Integer::sum), (Object) ids);
+        deltas.values().removeIf(delta -> delta == 0);
+        return deltas;
     }
 
     public Optional<Boolean> findUserReviewReaction(int reviewId, int userId) {
@@ -173,4 +201,4 @@ public class ReviewRepository extends BaseRepository<Review> {
             return Optional.empty();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,47 +1,102 @@
 package ru.yandex.practicum.filmorate.repository;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import ru.yandex.practicum.filmorate.exception.NotFoundIssueException;
 import ru.yandex.practicum.filmorate.model.User;
 
+import java.sql.PreparedStatement;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 
 @Repository
 public class UserRepository extends BaseRepository<User> {
-
-    public UserRepository(JdbcTemplate jdbc, RowMapper<User> rowMapper) {
-        super(jdbc, rowMapper);
+    private static final String ID_SEQUENCE = "users_id_seq";
+    private static final String[] PURGE_QUERIES = {
+        "delete from review_likes where review_id in (select review_id from reviews where user_id = ?)"
+                + " fetch first ? rows only",
+        "delete from reviews where user_id = ? fetch first ? rows only",
+        "delete from events where user_id = ? fetch first ? rows only",
+        "delete from user_friends where user_id = ? fetch first ? rows only",
+        "delete from user_friends where friend_id = ? fetch first ? rows only"
+    };
+
+    private final FriendshipGraph friendshipGraph;
+    private final IdAllocator idAllocator;
+    private final int fetchSize;
+
+    public UserRepository(JdbcTemplate jdbc, RowMapper<User> rowMapper, FriendshipGraph friendshipGraph,
+                          IdAllocator idAllocator,
+                          @Value("${filmorate.export.fetch-size:500}") int fetchSize) {
+        super(jdbc, rowMapper, "users", "id", "not deleted");
+        this.friendshipGraph = friendshipGraph;
+        this.idAllocator = idAllocator;
+        this.fetchSize = fetchSize;
     }
 
     public List<User> getAllUsers() {
-        String query = "select * from users";
+        String query = "select * from users where not deleted";
         return getRecords(query);
     }
 
+    /**
+     * Страница пользователей с id больше afterId в порядке id.
+     */
+    public List<User> getUsersPage(int limit, int afterId) {
+        String query = "select * from users where id > ? and not deleted order by id limit ?";
+        return getRecords(query, afterId, limit);
+    }
+
+    /**
+     * Передает пользователей с id больше afterId в consumer по мере чтения из базы, не собирая их в список.
+     */
+    public void streamUsers(int afterId, Consumer<User> consumer) {
+        String query = "select * from users where id > ? and not deleted order by id";
+        jdbc.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(query);
+            ps.setFetchSize(fetchSize);
+            ps.setInt(1, afterId);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(rowMapper.mapRow(rs, rs.getRow())));
+    }
+
     public Optional<User> getUserById(int id) {
-        String query = "select * from users where id = ?";
+        String query = "select * from users where id = ? and not deleted";
         return getRecord(query, id);
     }
 
+    public List<User> getUsersByIds(int[] ids) {
+        if (ids.length == 0) {
+            return List.of();
+        }
+        String query = "select * from users where id = any(?) and not deleted order by id";
+        return getRecords(query, (Object) Arrays.stream(ids).boxed().toArray());
+    }
+
     public Optional<User> getUserByEmail(String email) {
         String query = "select * from users where email = ?";
         return getRecord(query, email);
     }
 
     public User saveUser(User user) {
-        String query = "insert into users (email, login, name, birthday)"
-                       + "values (?, ?, ?, ?)";
-        int id = insert(query,
+        String query = "insert into users (id, email, login, name, birthday)"
+                       + "values (?, ?, ?, ?, ?)";
+        int id = (int) idAllocator.next(ID_SEQUENCE);
+        update(query,
+                id,
                 user.getEmail(),
                 user.getLogin(),
                 user.getName(),
                 user.getBirthday()
-        ).intValue();
+        );
 
         user.setId(id);
         return user;
@@ -63,34 +118,104 @@ public class UserRepository extends BaseRepository<User> {
         return getUserById(user.getId()).orElseThrow();
     }
 
-    public void deleteUser(int id) {
-        Optional<User> user = getUserById(id);
-        if (user.isEmpty()) {
-            throw new NotFoundIssueException("Пользователь с id = " + id + " не найден");
+    /**
+     * Помечает пользователя удаленным. С этого момента он не виден в чтении и проверках существования,
+     * но email остается занятым, пока строку не удалит DeletionPurger.
+     * В той же транзакции его лайки снимаются со счетчиков фильмов: like_count учитывает только лайки
+     * неудаленных пользователей, и строки likes потом удаляются без поправки счетчиков.
+     * Возвращает id фильмов, у которых уменьшен счетчик, или пустой Optional, если пользователь уже удален.
+     */
+    @Transactional
+    public Optional<List<Integer>> markDeleted(int id) {
+        String query = "update users set deleted = true where id = ? and not deleted";
+        if (update(query, id) == 0) {
+            return Optional.empty();
         }
+        List<Integer> filmIds = decrementLikeCounts(id);
+        afterCommit(() -> friendshipGraph.removeUser(id));
+        return Optional.of(filmIds);
+    }
 
-        String queryEvents = "delete from events where user_id = ?";
-        delete(queryEvents, id);
+    public List<Integer> getDeletedIds() {
+        String query = "select id from users where deleted";
+        return jdbc.queryForList(query, Integer.class);
+    }
 
-        String queryEvents2 = "delete from events where type = 'REVIEW' and entity_id in (select id from reviews where user_id = ?)";
-        delete(queryEvents2, id);
+    /**
+     * Удаляет не больше limit строк, зависящих от пользователя, и возвращает их число.
+     * Реакции на отзывы снимаются вместе с поправкой рейтинга отзывов, лайки со счетчиков сняты еще в markDeleted.
+     */
+    @Transactional
+    public int purgeUser(int id, int limit) {
+        int removed = purgeReviewReactions(id, limit);
+        if (removed < limit) {
+            removed += purgeLikes(id, limit - removed);
+        }
+        for (String query : PURGE_QUERIES) {
+            if (removed >= limit) {
+                break;
+            }
+            removed += update(query, id, limit - removed);
+        }
+        return removed;
+    }
 
-        String queryFriends1 = "delete from user_friends where user_id = ?";
-        delete(queryFriends1, id);
+    private int purgeReviewReactions(int id, int limit) {
+        String query = "select review_id, is_positive from review_likes where user_id = ? limit ?";
+        List<Object[]> reactions = jdbc.query(query, (rs, rowNum) -> new Object[]{
+                rs.getBoolean("is_positive") ? 1 : -1,
+                rs.getInt("review_id")}, id, limit);
+        if (reactions.isEmpty()) {
+            return 0;
+        }
+        jdbc.batchUpdate("update reviews set useful = useful - ? where review_id = ?", reactions);
+        Object[] reviewIds = reactions.stream().map(reaction -> reaction[1]).toArray();
+        return update("delete from review_likes where user_id = ? and review_id = any(?)", id, reviewIds);
+    }
 
-        String queryFriends2 = "delete from user_friends where friend_id = ?";
-        delete(queryFriends2, id);
+    private int purgeLikes(int id, int limit) {
+        String query = "select film_id from likes where user_id = ? limit ?";
+        Object[] filmIds = jdbc.queryForList(query, Integer.class, id, limit).toArray();
+        if (filmIds.length == 0) {
+            return 0;
+        }
+        return update("delete from likes where user_id = ? and film_id = any(?)", id, filmIds);
+    }
 
-        String queryLikes = "delete from likes where user_id = ?";
-        delete(queryLikes, id);
+    /**
+     * Удаляет пользователя одним запросом: лайки, отзывы, реакции, события и дружбу удаляет каскад
+     * внешних ключей. Счетчики лайков фильмов и рейтинг отзывов, на которые он реагировал, поправляются
+     * в той же транзакции. Возвращает id фильмов, у которых уменьшен счетчик: у помеченного удаленным
+     * пользователя лайки сняты со счетчиков еще в markDeleted.
+     */
+    @Transactional
+    public List<Integer> deleteUser(int id) {
+        List<Boolean> deleted = jdbc.queryForList("select deleted from users where id = ? for update",
+                Boolean.class, id);
+        if (deleted.isEmpty()) {
+            throw new NotFoundIssueException("Пользователь с id = " + id + " не найден");
+        }
+        List<Integer> filmIds = deleted.get(0) ? List.of() : decrementLikeCounts(id);
 
-        String queryReviews = "delete from reviews where user_id = ?";
-        delete(queryReviews, id);
+        String queryUseful = "update reviews r set useful = useful - (select case when rl.is_positive then 1 else -1 end"
+                + " from review_likes rl where rl.review_id = r.review_id and rl.user_id = ?)"
+                + " where review_id in (select review_id from review_likes where user_id = ?)";
+        update(queryUseful, id, id);
 
-        String queryReviewLikes = "delete from review_likes where user_id = ?";
-        delete(queryReviewLikes, id);
+        delete("delete from users where id = ?", id);
+        afterCommit(() -> friendshipGraph.removeUser(id));
+        return filmIds;
+    }
 
-        String queryUserS = "delete from users where id = ?";
-        delete(queryUserS, id);
+    /**
+     * Уменьшает like_count фильмов, которые лайкнул пользователь, и возвращает их id.
+     */
+    private List<Integer> decrementLikeCounts(int id) {
+        String query = "select film_id from likes where user_id = ?";
+        List<Integer> filmIds = jdbc.queryForList(query, Integer.class, id);
+        if (!filmIds.isEmpty()) {
+            update("update films set like_count = like_count - 1 where id = any(?)", (Object) filmIds.toArray());
+        }
+        return filmIds;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,191 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import ru.yandex.practicum.filmorate.repository.FilmRepository;
+import ru.yandex.practicum.filmorate.repository.UserRepository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Удаление пользователей и фильмов. Режимы (filmorate.delete.mode):
+ * immediate - строка удаляется одним запросом в потоке запроса, зависимые строки удаляет каскад внешних ключей;
+ * purge - запрос только помечает строку удаленной, и она сразу пропадает из чтения.
+ * В режиме purge фоновая задача раз в filmorate.purge.interval-ms удаляет зависимые строки помеченных записей
+ * пачками до batch-size строк, каждая пачка - в своей транзакции, не больше max-batches пачек за запуск.
+ * Когда зависимых строк не остается, удаляется сама запись. Помеченные записи подхватываются и после перезапуска.
+ */
+@Slf4j
+@Component
+public class DeletionPurger {
+    private final UserRepository userRepository;
+    private final FilmRepository filmRepository;
+    private final Mode mode;
+    private final int batchSize;
+    private final int maxBatches;
+
+    private final Queue<Target> pending = new ConcurrentLinkedQueue<>();
+    private final Set<Integer> deletedUsers = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> deletedFilms = ConcurrentHashMap.newKeySet();
+    private final Counter userRows;
+    private final Counter filmRows;
+    private final Timer userBatches;
+    private final Timer filmBatches;
+
+    @Autowired
+    public DeletionPurger(UserRepository userRepository,
+                          FilmRepository filmRepository,
+                          MeterRegistry meterRegistry,
+                          @Value("${filmorate.delete.mode:purge}") String mode,
+                          @Value("${filmorate.purge.batch-size:1000}") int batchSize,
+                          @Value("${filmorate.purge.max-batches:20}") int maxBatches) {
+        this.userRepository = userRepository;
+        this.filmRepository = filmRepository;
+        this.mode = Mode.valueOf(mode.toUpperCase().replace('-', '_'));
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+
+        this.userRows = purgedRows(meterRegistry, Entity.USER);
+        this.filmRows = purgedRows(meterRegistry, Entity.FILM);
+        this.userBatches = purgeBatches(meterRegistry, Entity.USER);
+        this.filmBatches = purgeBatches(meterRegistry, Entity.FILM);
+        Gauge.builder("filmorate.purge.pending", pending, Queue::size)
+                .description("Удаленных записей, зависимые строки которых еще не удалены")
+                .register(meterRegistry);
+    }
+
+    private static Counter purgedRows(MeterRegistry meterRegistry, Entity entity) {
+        return Counter.builder("filmorate.purge.rows")
+                .description("Зависимых строк удалено фоновой очисткой")
+                .tag("entity", entity.name().toLowerCase())
+                .register(meterRegistry);
+    }
+
+    private static Timer purgeBatches(MeterRegistry meterRegistry, Entity entity) {
+        return Timer.builder("filmorate.purge.batch")
+                .description("Удаление одной пачки зависимых строк")
+                .tag("entity", entity.name().toLowerCase())
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void resume() {
+        userRepository.getDeletedIds().forEach(id -> enqueue(Entity.USER, id));
+        filmRepository.getDeletedIds().forEach(id -> enqueue(Entity.FILM, id));
+        if (!pending.isEmpty()) {
+            log.info("Продолжаем очистку {} удаленных записей", pending.size());
+        }
+    }
+
+    /**
+     * Возвращает id фильмов, с которых снят лайк пользователя.
+     */
+    public List<Integer> deleteUser(int id) {
+        if (mode == Mode.IMMEDIATE) {
+            return userRepository.deleteUser(id);
+        }
+        Optional<List<Integer>> unliked = userRepository.markDeleted(id);
+        unliked.ifPresent(filmIds -> enqueue(Entity.USER, id));
+        return unliked.orElse(List.of());
+    }
+
+    public void deleteFilm(int id) {
+        if (mode == Mode.IMMEDIATE) {
+            filmRepository.deleteFilm(id);
+        } else if (filmRepository.markDeleted(id)) {
+            enqueue(Entity.FILM, id);
+        }
+    }
+
+    /**
+     * Пользователь помечен удаленным, но ссылающиеся на него строки (например, отзывы) еще не удалены.
+     */
+    public boolean isUserDeleted(int id) {
+        return deletedUsers.contains(id);
+    }
+
+    public boolean isFilmDeleted(int id) {
+        return deletedFilms.contains(id);
+    }
+
+    private void enqueue(Entity entity, int id) {
+        deletedIds(entity).add(id);
+        pending.add(new Target(entity, id));
+    }
+
+    private Set<Integer> deletedIds(Entity entity) {
+        return entity == Entity.USER ? deletedUsers : deletedFilms;
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.purge.interval-ms:1000}",
+            fixedDelayString = "${filmorate.purge.interval-ms:1000}")
+    public synchronized void purge() {
+        for (int batch = 0; batch < maxBatches; batch++) {
+            Target target = pending.peek();
+            if (target == null) {
+                return;
+            }
+            try {
+                if (purgeBatch(target)) {
+                    pending.remove(target);
+                    deletedIds(target.entity()).remove(target.id());
+                    log.info("Очистка завершена: {} с id = {} удален вместе со всеми связанными строками",
+                            target.entity() == Entity.USER ? "пользователь" : "фильм", target.id());
+                }
+            } catch (RuntimeException e) {
+                log.error("Не удалось очистить {} с id = {}, повторим при следующем запуске",
+                        target.entity() == Entity.USER ? "пользователя" : "фильм", target.id(), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Удаляет очередную пачку зависимых строк. Если пачка неполная, зависимых строк больше нет
+     * и запись удаляется окончательно - тогда возвращает true.
+     */
+    private boolean purgeBatch(Target target) {
+        int removed;
+        if (target.entity() == Entity.USER) {
+            removed = userBatches.record(() -> userRepository.purgeUser(target.id(), batchSize));
+            userRows.increment(removed);
+            if (removed < batchSize) {
+                userRepository.deleteUser(target.id());
+            }
+        } else {
+            removed = filmBatches.record(() -> filmRepository.purgeFilm(target.id(), batchSize));
+            filmRows.increment(removed);
+            if (removed < batchSize) {
+                filmRepository.deleteFilm(target.id());
+            }
+        }
+        return removed < batchSize;
+    }
+
+    private enum Mode {
+        IMMEDIATE,
+        PURGE
+    }
+
+    private enum Entity {
+        USER,
+        FILM
+    }
+
+    private record Target(Entity entity, int id) {
+    }
+}
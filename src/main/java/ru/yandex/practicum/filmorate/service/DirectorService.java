@@ -6,6 +6,7 @@ import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundIssueException;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.repository.DirectorRepository;
+import ru.yandex.practicum.filmorate.repository.FilmRepository;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,10 +15,16 @@ import java.util.Optional;
 public class DirectorService {
 
     private final DirectorRepository directorRepository;
+    private final FilmRepository filmRepository;
+    private final FilmSearchIndex searchIndex;
 
     @Autowired
-    public DirectorService(DirectorRepository directorRepository) {
+    public DirectorService(DirectorRepository directorRepository,
+                           FilmRepository filmRepository,
+                           FilmSearchIndex searchIndex) {
         this.directorRepository = directorRepository;
+        this.filmRepository = filmRepository;
+        this.searchIndex = searchIndex;
     }
 
     public List<Director> getAllDirectors() {
@@ -35,17 +42,24 @@ public class DirectorService {
 
     public Director createDirector(Director director) {
 
-        return directorRepository.addDirector(director);
+        Director created = directorRepository.addDirector(director);
+        searchIndex.putDirector(created);
+        return created;
     }
 
     public Director updateDirector(Director director) {
 
         getDirectorById(director.getId());
-        return directorRepository.updateDirector(director);
+        Director updated = directorRepository.updateDirector(director);
+        filmRepository.evictFilmsWithDirector(director.getId());
+        searchIndex.putDirector(updated);
+        return updated;
     }
 
     public void deleteDirector(int id) {
         boolean deleted = directorRepository.deleteDirector(id);
+        filmRepository.evictFilmsWithDirector(id);
+        searchIndex.removeDirector(id);
         if (!deleted) {
             log.warn("Режиссер с ID {} не был удален (возможно, не существовал)", id);
         }
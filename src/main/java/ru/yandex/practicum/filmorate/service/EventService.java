@@ -10,23 +10,30 @@ import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.api.dto.EventDTO;
 import ru.yandex.practicum.filmorate.api.mapper.EventMapper;
 import ru.yandex.practicum.filmorate.exception.NotFoundIssueException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.repository.EventRepository;
+import ru.yandex.practicum.filmorate.repository.UserRepository;
+
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 public class EventService {
     private final EventRepository eventRepository;
+    private final UserRepository userRepository;
+    private final EventWriter eventWriter;
 
     @Autowired
-    public EventService(EventRepository eventRepository) {
+    public EventService(EventRepository eventRepository, UserRepository userRepository, EventWriter eventWriter) {
         this.eventRepository = eventRepository;
+        this.userRepository = userRepository;
+        this.eventWriter = eventWriter;
     }
 
-    public EventDTO createEvent(Event event) {
-        event = eventRepository.saveEvent(event);
+    public void createEvent(Event event) {
+        eventWriter.write(event);
         log.info("Зафиксировано событие: {}", event.toString());
-        return EventMapper.mapToEventDTO(event);
     }
 
     public List<EventDTO> getUserFeed(int userId) {
@@ -43,4 +50,31 @@ public class EventService {
                         }
                 ));
     }
+
+    public List<EventDTO> getUserFeed(int userId, int limit, Long afterTimestamp, Long afterId) {
+        checkFeedCursor(afterTimestamp, afterId);
+        checkUserExists(userId);
+
+        return eventRepository.getEventsByUserId(userId, limit, afterTimestamp, afterId)
+                .stream()
+                .map(EventMapper::mapToEventDTO)
+                .toList();
+    }
+
+    public void streamUserFeed(int userId, Long afterTimestamp, Long afterId, Consumer<EventDTO> consumer) {
+        eventRepository.streamEventsByUserId(userId, afterTimestamp, afterId,
+                event -> consumer.accept(EventMapper.mapToEventDTO(event)));
+    }
+
+    public void checkFeedCursor(Long afterTimestamp, Long afterId) {
+        if ((afterTimestamp == null) != (afterId == null)) {
+            throw new ValidationException("Параметры afterTimestamp и afterId передаются только вместе");
+        }
+    }
+
+    public void checkUserExists(int userId) {
+        if (!userRepository.existsById(userId)) {
+            throw new NotFoundIssueException("Пользователь с ID " + userId + " не найден");
+        }
+    }
 }
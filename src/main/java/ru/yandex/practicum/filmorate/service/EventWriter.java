@@ -0,0 +1,263 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.repository.EventRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Запись событий ленты. Режимы (filmorate.events.mode):
+ * sync - вставка в потоке запроса;
+ * async - событие кладется в очередь, запрос не ждет записи;
+ * group-commit - запрос ждет, пока фоновый поток запишет пачку, в которую попало его событие.
+ * В режимах с очередью фоновый поток пишет пачками до batch-size событий, дожидаясь следующих
+ * не дольше linger-ms. Если очередь заполнена, вызывающий поток ждет свободного места.
+ * В режиме group-commit запрос ждет записи не дольше write-timeout-ms. После остановки фонового потока
+ * (штатной или из-за ошибки) новые события не принимаются, а оставшиеся в очереди завершаются ошибкой.
+ * После записи события (уже с id) передаются подписчикам, добавленным через addListener.
+ */
+@Slf4j
+@Component
+public class EventWriter {
+    private final EventRepository eventRepository;
+    private final Mode mode;
+    private final BlockingQueue<PendingEvent> queue;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final long writeTimeoutMs;
+
+    private final Timer flushTimer;
+    private final Counter backPressure;
+    private final Thread writerThread;
+    private final List<Consumer<List<Event>>> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    @Autowired
+    public EventWriter(EventRepository eventRepository,
+                       MeterRegistry meterRegistry,
+                       @Value("${filmorate.events.mode:group-commit}") String mode,
+                       @Value("${filmorate.events.queue-capacity:10000}") int queueCapacity,
+                       @Value("${filmorate.events.batch-size:500}") int batchSize,
+                       @Value("${filmorate.events.linger-ms:2}") long lingerMs,
+                       @Value("${filmorate.events.write-timeout-ms:5000}") long writeTimeoutMs) {
+        this.eventRepository = eventRepository;
+        this.mode = Mode.valueOf(mode.toUpperCase().replace('-', '_'));
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        this.writeTimeoutMs = writeTimeoutMs;
+
+        this.flushTimer = Timer.builder("filmorate.events.flush")
+                .description("Запись пачки событий в базу")
+                .register(meterRegistry);
+        this.backPressure = Counter.builder("filmorate.events.backpressure")
+                .description("Сколько раз запрос ждал места в заполненной очереди событий")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.events.queue.depth", queue, BlockingQueue::size)
+                .description("Событий в очереди на запись")
+                .register(meterRegistry);
+
+        this.writerThread = new Thread(this::run, "event-writer");
+        this.writerThread.setDaemon(true);
+    }
+
+    @PostConstruct
+    void start() {
+        if (mode != Mode.SYNC) {
+            writerThread.start();
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if (writerThread.isAlive()) {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        failQueued();
+    }
+
+    public void addListener(Consumer<List<Event>> listener) {
+        listeners.add(listener);
+    }
+
+    public void write(Event event) {
+        switch (mode) {
+            case SYNC -> {
+                eventRepository.saveEvent(event);
+                notifyListeners(List.of(event));
+            }
+            case ASYNC -> enqueue(new PendingEvent(event, null));
+            case GROUP_COMMIT -> {
+                CompletableFuture<Void> written = new CompletableFuture<>();
+                enqueue(new PendingEvent(event, written));
+                await(written);
+            }
+        }
+    }
+
+    private void await(CompletableFuture<Void> written) {
+        try {
+            written.get(writeTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Событие не записано", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Событие не записано за " + writeTimeoutMs + " мс", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Прервано ожидание записи события", e);
+        }
+    }
+
+    private void enqueue(PendingEvent pending) {
+        if (!running) {
+            throw new IllegalStateException("Запись событий остановлена");
+        }
+        if (queue.offer(pending)) {
+            return;
+        }
+        backPressure.increment();
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Прервано ожидание места в очереди событий", e);
+        }
+    }
+
+    private void run() {
+        try {
+            writeBatches();
+        } finally {
+            running = false;
+            failQueued();
+        }
+    }
+
+    private void writeBatches() {
+        List<PendingEvent> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } catch (Error e) {
+                log.error("Поток записи событий остановлен из-за ошибки", e);
+                batch.forEach(pending -> pending.fail(e));
+                throw e;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Завершает ошибкой события, которые уже не будут записаны, чтобы их не ждали запросы.
+     */
+    private void failQueued() {
+        List<PendingEvent> left = new ArrayList<>();
+        queue.drainTo(left);
+        if (left.isEmpty()) {
+            return;
+        }
+        log.error("Запись событий остановлена, не записано {} событий", left.size());
+        IllegalStateException stopped = new IllegalStateException("Запись событий остановлена");
+        left.forEach(pending -> pending.fail(stopped));
+    }
+
+    private void flush(List<PendingEvent> batch) {
+        long start = System.nanoTime();
+        List<PendingEvent> written = new ArrayList<>(batch.size());
+        try {
+            eventRepository.saveEvents(batch.stream().map(PendingEvent::event).toList());
+            written.addAll(batch);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось записать пачку из {} событий, записываем по одному", batch.size(), e);
+            for (PendingEvent pending : batch) {
+                try {
+                    eventRepository.saveEvent(pending.event());
+                    written.add(pending);
+                } catch (RuntimeException single) {
+                    log.error("Событие не записано: {}", pending.event(), single);
+                    pending.fail(single);
+                }
+            }
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        notifyListeners(written.stream().map(PendingEvent::event).toList());
+        written.forEach(PendingEvent::complete);
+    }
+
+    private void notifyListeners(List<Event> events) {
+        for (Consumer<List<Event>> listener : listeners) {
+            try {
+                listener.accept(events);
+            } catch (RuntimeException e) {
+                log.error("Ошибка обработчика записанных событий", e);
+            }
+        }
+    }
+
+    private enum Mode {
+        SYNC,
+        ASYNC,
+        GROUP_COMMIT
+    }
+
+    private record PendingEvent(Event event, CompletableFuture<Void> written) {
+        void complete() {
+            if (written != null) {
+                written.complete(null);
+            }
+        }
+
+        void fail(Throwable e) {
+            if (written != null) {
+                written.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.repository.DirectorRepository;
+import ru.yandex.practicum.filmorate.repository.FilmRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Поиск фильмов по названию и имени режиссера в памяти.
+ * Для названий и имен строится индекс триграмм (все подстроки из трех символов в нижнем регистре):
+ * кандидаты на совпадение с подстрокой - пересечение списков по триграммам запроса, затем проверка contains.
+ * Результат тот же, что у поиска через like '%query%': без повторов, от новых фильмов к старым.
+ * Если точных совпадений нет, ищутся названия и имена, содержащие хотя бы половину триграмм запроса
+ * (поиск с опечатками), самые похожие идут первыми.
+ */
+@Slf4j
+@Component
+public class FilmSearchIndex {
+    private static final int GRAM = 3;
+    private static final double FUZZY_SIMILARITY = 0.5;
+
+    private final FilmRepository filmRepository;
+    private final DirectorRepository directorRepository;
+    private final boolean enabled;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, String> titles = new HashMap<>();
+    private final Map<Integer, int[]> filmDirectors = new HashMap<>();
+    private final Map<Integer, String> directorNames = new HashMap<>();
+    private final Map<Integer, Postings> directorFilms = new HashMap<>();
+    private final TrigramIndex titleIndex = new TrigramIndex();
+    private final TrigramIndex directorIndex = new TrigramIndex();
+
+    @Autowired
+    public FilmSearchIndex(FilmRepository filmRepository,
+                           DirectorRepository directorRepository,
+                           @Value("${filmorate.search.in-memory:true}") boolean enabled) {
+        this.filmRepository = filmRepository;
+        this.directorRepository = directorRepository;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        directorRepository.getAllDirectors().forEach(this::putDirector);
+        List<Film> films = filmRepository.getAllFilms();
+        films.forEach(this::putFilm);
+        log.info("Поисковый индекс построен: {} фильмов, {} режиссеров за {} мс",
+                films.size(), directorNames.size(), System.currentTimeMillis() - start);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<Integer> search(String phrase, Set<String> fields) {
+        String query = normalize(phrase);
+        boolean byTitle = fields.contains("title");
+        boolean byDirector = fields.contains("director");
+        lock.readLock().lock();
+        try {
+            TreeSet<Integer> found = new TreeSet<>(Comparator.reverseOrder());
+            if (byTitle) {
+                for (int filmId : titleIndex.find(query, titles)) {
+                    found.add(filmId);
+                }
+            }
+            if (byDirector) {
+                for (int directorId : directorIndex.find(query, directorNames)) {
+                    directorFilms.get(directorId).forEach(found::add);
+                }
+            }
+            if (!found.isEmpty() || query.length() < GRAM) {
+                return new ArrayList<>(found);
+            }
+            return searchFuzzy(query, byTitle, byDirector);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void putFilm(Film film) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeFilmEntries(film.getId());
+            String title = normalize(film.getName());
+            int[] directorIds = film.getDirectors().stream()
+                    .mapToInt(Director::getId)
+                    .distinct()
+                    .toArray();
+            titles.put(film.getId(), title);
+            titleIndex.add(film.getId(), title);
+            filmDirectors.put(film.getId(), directorIds);
+            for (int directorId : directorIds) {
+                directorFilms.computeIfAbsent(directorId, id -> new Postings()).add(film.getId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFilm(int filmId) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeFilmEntries(filmId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putDirector(Director director) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            String previous = directorNames.put(director.getId(), normalize(director.getName()));
+            if (previous != null) {
+                directorIndex.remove(director.getId(), previous);
+            }
+            directorIndex.add(director.getId(), directorNames.get(director.getId()));
+            directorFilms.computeIfAbsent(director.getId(), id -> new Postings());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Связи фильмов с режиссером удаляются каскадно вместе с ним.
+     */
+    public void removeDirector(int directorId) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            String name = directorNames.remove(directorId);
+            if (name != null) {
+                directorIndex.remove(directorId, name);
+            }
+            Postings films = directorFilms.remove(directorId);
+            if (films != null) {
+                films.forEach(filmId -> filmDirectors.computeIfPresent(filmId, (id, directorIds) ->
+                        Arrays.stream(directorIds).filter(d -> d != directorId).toArray()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeFilmEntries(int filmId) {
+        String title = titles.remove(filmId);
+        if (title != null) {
+            titleIndex.remove(filmId, title);
+        }
+        int[] directorIds = filmDirectors.remove(filmId);
+        if (directorIds != null) {
+            for (int directorId : directorIds) {
+                Postings films = directorFilms.get(directorId);
+                if (films != null) {
+                    films.remove(filmId);
+                }
+            }
+        }
+    }
+
+    private List<Integer> searchFuzzy(String query, boolean byTitle, boolean byDirector) {
+        Map<Integer, Double> scores = new HashMap<>();
+        if (byTitle) {
+            scores.putAll(titleIndex.similar(query));
+        }
+        if (byDirector) {
+            directorIndex.similar(query).forEach((directorId, score) ->
+                    directorFilms.get(directorId).forEach(filmId -> scores.merge(filmId, score, Math::max)));
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<Integer, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.<Integer, Double>comparingByKey().reversed()))
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    private static Set<String> trigrams(String text) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    /**
+     * Для каждой триграммы - отсортированный список id строк, в которых она встречается.
+     */
+    private static class TrigramIndex {
+        private final Map<String, Postings> postings = new HashMap<>();
+
+        void add(int id, String text) {
+            for (String gram : trigrams(text)) {
+                postings.computeIfAbsent(gram, g -> new Postings()).add(id);
+            }
+        }
+
+        void remove(int id, String text) {
+            for (String gram : trigrams(text)) {
+                Postings ids = postings.get(gram);
+                if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                    postings.remove(gram);
+                }
+            }
+        }
+
+        /**
+         * Id строк, содержащих query. Для запроса короче триграммы проверяются все строки.
+         */
+        int[] find(String query, Map<Integer, String> texts) {
+            if (query.length() < GRAM) {
+                return texts.entrySet().stream()
+                        .filter(entry -> entry.getValue().contains(query))
+                        .mapToInt(Map.Entry::getKey)
+                        .toArray();
+            }
+
+            List<Postings> lists = new ArrayList<>();
+            for (String gram : trigrams(query)) {
+                Postings ids = postings.get(gram);
+                if (ids == null) {
+                    return new int[0];
+                }
+                lists.add(ids);
+            }
+            lists.sort(Comparator.comparingInt(Postings::size));
+            int[] candidates = lists.get(0).toArray();
+            for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+                candidates = lists.get(i).intersect(candidates);
+            }
+            return Arrays.stream(candidates)
+                    .filter(id -> texts.get(id).contains(query))
+                    .toArray();
+        }
+
+        /**
+         * Строки, содержащие не меньше FUZZY_SIMILARITY триграмм запроса, с долей совпавших триграмм.
+         */
+        Map<Integer, Double> similar(String query) {
+            Set<String> grams = trigrams(query);
+            Map<Integer, Integer> hits = new HashMap<>();
+            for (String gram : grams) {
+                Postings ids = postings.get(gram);
+                if (ids != null) {
+                    ids.forEach(id -> hits.merge(id, 1, Integer::sum));
+                }
+            }
+            Map<Integer, Double> scores = new HashMap<>();
+            hits.forEach((id, count) -> {
+                double score = (double) count / grams.size();
+                if (score >= FUZZY_SIMILARITY) {
+                    scores.put(id, score);
+                }
+            });
+            return scores;
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package ru.yandex.practicum.filmorate.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import ru.yandex.practicum.filmorate.api.dto.CreateFilmRequest;
 import ru.yandex.practicum.filmorate.api.dto.FilmDTO;
+import ru.yandex.practicum.filmorate.api.dto.FilmImportReport;
 import ru.yandex.practicum.filmorate.api.dto.UpdateFilmRequest;
 import ru.yandex.practicum.filmorate.api.mapper.FilmMapper;
 import ru.yandex.practicum.filmorate.exception.NotFoundIssueException;
@@ -13,14 +22,21 @@ import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.repository.*;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class FilmService {
+    private static final int MAX_IMPORT_ERRORS = 100;
 
     private final FilmRepository filmRepository;
     private final GenreRepository genreRepository;
@@ -28,6 +44,14 @@ public class FilmService {
     private final UserRepository userRepository;
     private final DirectorRepository directorRepository;
     private final EventService eventService;
+    private final PopularityIndex popularityIndex;
+    private final RecommendationEngine recommendationEngine;
+    private final FilmSearchIndex searchIndex;
+    private final DeletionPurger deletionPurger;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+    private final int importChunkSize;
 
     @Autowired
     public FilmService(FilmRepository filmRepository,
@@ -35,7 +59,15 @@ public class FilmService {
                        MpaRepository mpaRepository,
                        UserRepository userRepository,
                        DirectorRepository directorRepository,
-                       EventService eventService
+                       EventService eventService,
+                       PopularityIndex popularityIndex,
+                       RecommendationEngine recommendationEngine,
+                       FilmSearchIndex searchIndex,
+                       DeletionPurger deletionPurger,
+                       ObjectMapper objectMapper,
+                       Validator validator,
+                       TransactionTemplate transactionTemplate,
+                       @Value("${filmorate.import.chunk-size:1000}") int importChunkSize
     ) {
         this.filmRepository = filmRepository;
         this.genreRepository = genreRepository;
@@ -43,6 +75,14 @@ public class FilmService {
         this.userRepository = userRepository;
         this.directorRepository = directorRepository;
         this.eventService = eventService;
+        this.popularityIndex = popularityIndex;
+        this.recommendationEngine = recommendationEngine;
+        this.searchIndex = searchIndex;
+        this.deletionPurger = deletionPurger;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.transactionTemplate = transactionTemplate;
+        this.importChunkSize = importChunkSize;
     }
 
     public List<FilmDTO> getAllFilms() {
@@ -52,6 +92,17 @@ public class FilmService {
                 .toList();
     }
 
+    public List<FilmDTO> getFilmsPage(int limit, int afterId) {
+        return filmRepository.getFilmsPage(limit, afterId)
+                .stream()
+                .map(FilmMapper::mapToFilmDto)
+                .toList();
+    }
+
+    public void streamFilms(int afterId, Consumer<FilmDTO> consumer) {
+        filmRepository.streamFilms(afterId, film -> consumer.accept(FilmMapper.mapToFilmDto(film)));
+    }
+
     public FilmDTO getFilm(int id) {
         Optional<Film> film = filmRepository.getFilmById(id);
         if (film.isEmpty()) {
@@ -72,25 +123,15 @@ public class FilmService {
             logValidationError("Продолжительность фильма должна быть положительным числом");
         }
 
-        if (!mpaRepository.getAllMpa()
-                .stream()
-                .map(Mpa::getId)
-                .toList()
-                .contains(filmRequest.getMpa().getId())) {
+        if (mpaRepository.getMpaById(filmRequest.getMpa().getId()).isEmpty()) {
             logNotFoundError("Указан рейтинг, которого нет в базе");
         }
 
-        List<Genre> genres = genreRepository.getAllGenres();
-
-        if (!filmRequest.getGenres()
+        Set<Integer> genreIds = filmRequest.getGenres()
                 .stream()
                 .map(Genre::getId)
-                .filter(i -> !genres.stream()
-                        .map(Genre::getId)
-                        .toList()
-                        .contains(i))
-                .toList()
-                .isEmpty()) {
+                .collect(Collectors.toSet());
+        if (genreRepository.getGenresByIds(genreIds).size() != genreIds.size()) {
             logNotFoundError("Указаны жанры, которых нет в базе");
         }
         List<Integer> directorIds = filmRequest.getDirectors().stream()
@@ -98,16 +139,7 @@ public class FilmService {
                 .filter(Objects::nonNull)
                 .filter(id -> id > 0)
                 .toList();
-        if (!directorIds.isEmpty()) {
-            List<Director> allDirectors = directorRepository.getAllDirectors();
-            List<Integer> existingDirectorIds = allDirectors.stream()
-                    .map(Director::getId)
-                    .toList();
-
-            if (!existingDirectorIds.containsAll(directorIds)) {
-                logNotFoundError("Указаны режиссеры, которых нет в базе");
-            }
-        }
+        checkDirectorsExist(directorIds);
         long directorsWithId = filmRequest.getDirectors().stream()
                 .map(Director::getId)
                 .filter(Objects::nonNull)
@@ -116,19 +148,94 @@ public class FilmService {
             logValidationError("Все указанные режиссеры должны иметь корректный ID.");
         }
 
-        Film film = filmRepository.addFilm(FilmMapper.mapToFilm(filmRequest));
-        if (!filmRequest.getGenres().isEmpty()) {
-            filmRepository.linkGenresToFilm(film, new ArrayList<>(filmRequest.getGenres()));
-        }
-        if (!directorIds.isEmpty()) {
-            filmRepository.linkDirectorsToFilm(film.getId(), directorIds);
-        }
+        Film film = FilmMapper.mapToFilm(filmRequest);
+        removeDirectorsWithoutId(film);
+        filmRepository.addFilm(film);
+        popularityIndex.putFilm(film);
+        searchIndex.putFilm(film);
 
         log.info("Фильм {} добавлен с ид={}", film.getName(), film.getId());
 
         return FilmMapper.mapToFilmDto(film);
     }
 
+    /**
+     * Импорт каталога в формате NDJSON: по одному CreateFilmRequest в строке.
+     * Строки проверяются по тем же правилам, что и в addFilm, но по справочникам, прочитанным один раз в начале.
+     * Корректные фильмы пишутся пачками по importChunkSize, каждая пачка - в своей транзакции.
+     * Ошибочные строки пропускаются и попадают в отчет (первые MAX_IMPORT_ERRORS).
+     */
+    public FilmImportReport importFilms(InputStream body) throws IOException {
+        long start = System.nanoTime();
+        Set<Integer> mpaIds = mpaRepository.getAllMpa().stream()
+                .map(Mpa::getId)
+                .collect(Collectors.toSet());
+        Set<Integer> genreIds = genreRepository.getAllGenres().stream()
+                .map(Genre::getId)
+                .collect(Collectors.toSet());
+        Set<Integer> directorIds = directorRepository.getAllDirectors().stream()
+                .map(Director::getId)
+                .collect(Collectors.toSet());
+        ObjectReader reader = objectMapper.readerFor(CreateFilmRequest.class);
+
+        List<FilmImportReport.Chunk> chunks = new ArrayList<>();
+        List<FilmImportReport.LineError> errors = new ArrayList<>();
+        List<Film> chunk = new ArrayList<>(importChunkSize);
+        List<Integer> chunkLines = new ArrayList<>(importChunkSize);
+        int imported = 0;
+        int rejected = 0;
+        int lineNumber = 0;
+
+        BufferedReader lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            String error;
+            try {
+                CreateFilmRequest request = reader.readValue(line);
+                error = validateImported(request, mpaIds, genreIds, directorIds);
+                if (error == null) {
+                    Film film = FilmMapper.mapToFilm(request);
+                    removeDirectorsWithoutId(film);
+                    chunk.add(film);
+                    chunkLines.add(lineNumber);
+                }
+            } catch (JsonProcessingException e) {
+                error = "Некорректный JSON: " + e.getOriginalMessage();
+            }
+            if (error != null) {
+                rejected++;
+                addImportError(errors, lineNumber, error);
+            }
+
+            if (chunk.size() == importChunkSize) {
+                int written = writeImportChunk(chunk, chunkLines, chunks, errors);
+                imported += written;
+                rejected += chunk.size() - written;
+                chunk.clear();
+                chunkLines.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            int written = writeImportChunk(chunk, chunkLines, chunks, errors);
+            imported += written;
+            rejected += chunk.size() - written;
+        }
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Импорт фильмов завершен: добавлено {}, отклонено {} за {} мс", imported, rejected, millis);
+        return FilmImportReport.builder()
+                .imported(imported)
+                .rejected(rejected)
+                .millis(millis)
+                .chunks(chunks)
+                .errors(errors)
+                .build();
+    }
+
     public FilmDTO updateFilm(UpdateFilmRequest filmRequest) {
 
         checkFilmExists(filmRequest.getId());
@@ -147,17 +254,7 @@ public class FilmService {
                 .filter(Objects::nonNull)
                 .filter(id -> id > 0)
                 .toList();
-
-        if (!directorIds.isEmpty()) {
-            List<Director> allDirectors = directorRepository.getAllDirectors();
-            List<Integer> existingDirectorIds = allDirectors.stream()
-                    .map(Director::getId)
-                    .toList();
-
-            if (!existingDirectorIds.containsAll(directorIds)) {
-                logNotFoundError("Указаны режиссеры, которых нет в базе");
-            }
-        }
+        checkDirectorsExist(directorIds);
         long directorsWithId = filmRequest.getDirectors().stream()
                 .map(Director::getId)
                 .filter(Objects::nonNull)
@@ -166,16 +263,11 @@ public class FilmService {
             logValidationError("Все указанные режиссеры должны иметь корректный ID.");
         }
 
-        Film film = filmRepository.updateFilm(FilmMapper.mapToFilm(filmRequest));
-        filmRepository.deleteLinkedGenres(film.getId());
-        if (!filmRequest.getGenres().isEmpty()) {
-            Set<Genre> uniqueGenres = new LinkedHashSet<>(filmRequest.getGenres());
-            filmRepository.linkGenresToFilm(film, new ArrayList<>(uniqueGenres));
-        }
-        filmRepository.deleteLinkedDirectors(film.getId());
-        if (!directorIds.isEmpty()) {
-            filmRepository.linkDirectorsToFilm(film.getId(), directorIds);
-        }
+        Film film = FilmMapper.mapToFilm(filmRequest);
+        removeDirectorsWithoutId(film);
+        filmRepository.updateFilm(film);
+        popularityIndex.putFilm(film);
+        searchIndex.putFilm(film);
 
         log.info("Фильм с ид={} обновлен", film.getId());
         return FilmMapper.mapToFilmDto(film);
@@ -189,7 +281,10 @@ public class FilmService {
             throw new NotFoundIssueException("Фильм с id = " + id + " не найден");
         }
 
-        filmRepository.deleteFilm(id);
+        deletionPurger.deleteFilm(id);
+        popularityIndex.removeFilm(id);
+        recommendationEngine.removeFilm(id);
+        searchIndex.removeFilm(id);
 
         log.info("Фильм с id = {} успешно удален", id);
     }
@@ -198,10 +293,13 @@ public class FilmService {
         checkFilmExists(filmId);
         checkUserExists(userId);
 
-        filmRepository.addLike(filmId, userId);
+        if (filmRepository.addLike(filmId, userId)) {
+            popularityIndex.changeLikes(filmId, 1);
+            recommendationEngine.addLike(filmId, userId);
+        }
 
         eventService.createEvent(Event.builder()
-                .user(userRepository.getUserById(userId).orElseThrow())
+                .userId(userId)
                 .entityId(filmId)
                 .type(EventType.LIKE)
                 .operation(EventOperation.ADD)
@@ -214,9 +312,12 @@ public class FilmService {
         checkFilmExists(filmId);
         checkUserExists(userId);
 
-        filmRepository.removeLike(filmId, userId);
+        if (filmRepository.removeLike(filmId, userId)) {
+            popularityIndex.changeLikes(filmId, -1);
+            recommendationEngine.removeLike(filmId, userId);
+        }
         eventService.createEvent(Event.builder()
-                .user(userRepository.getUserById(userId).orElseThrow())
+                .userId(userId)
                 .entityId(filmId)
                 .type(EventType.LIKE)
                 .operation(EventOperation.REMOVE)
@@ -237,19 +338,19 @@ public class FilmService {
     }
 
     private void checkUserExists(int userId) {
-        if (userRepository.getUserById(userId).isEmpty()) {
+        if (!userRepository.existsById(userId)) {
             throw new NotFoundIssueException("Пользователь с ID " + userId + " не найден");
         }
     }
 
     void checkFilmExists(int filmId) {
-        if (filmRepository.getFilmById(filmId).isEmpty()) {
+        if (!filmRepository.existsById(filmId)) {
             throw new NotFoundIssueException("Фильм с ID " + filmId + " не найден");
         }
     }
 
     public List<FilmDTO> getDirectorFilms(int directorId, String sortBy) {
-        if (directorRepository.getDirectorById(directorId).isEmpty()) {
+        if (!directorRepository.existsById(directorId)) {
             log.error("Режиссер с ID {} не найден", directorId);
             throw new NotFoundIssueException("Режиссер не найден");
         }
@@ -263,35 +364,140 @@ public class FilmService {
             films = filmRepository.getDirectorFilmsSortedByLikes(directorId);
         }
 
-        for (Film film : films) {
-            List<Genre> filmGenres = genreRepository.getGenresByFilmId(film.getId());
-            film.getGenres().clear();
-            film.getGenres().addAll(filmGenres);
-
-            List<Director> filmDirectors = directorRepository.getDirectorsByFilmId(film.getId());
-            film.getDirectors().clear();
-            film.getDirectors().addAll(filmDirectors);
-        }
-
         return films.stream()
                 .map(FilmMapper::mapToFilmDto)
                 .collect(Collectors.toList());
     }
 
     public List<FilmDTO> getMostPopular(Integer count, Integer genreId, Integer year) {
-        return filmRepository.getMostPopular(count, genreId, year)
+        List<Film> films;
+        if (popularityIndex.isEnabled()) {
+            films = filmRepository.getFilmsByIds(popularityIndex.getMostPopularIds(count, genreId, year));
+        } else {
+            films = filmRepository.getMostPopular(count, genreId, year);
+        }
+
+        return films
                 .stream()
                 .map(FilmMapper::mapToFilmDto)
                 .toList();
     }
 
     public List<FilmDTO> getRecommendations(int id) {
-        return filmRepository.getRecommendations(id)
+        List<Film> films;
+        if (recommendationEngine.isEnabled()) {
+            films = filmRepository.getFilmsByIds(recommendationEngine.getRecommendedFilmIds(id));
+        } else {
+            films = filmRepository.getRecommendations(id);
+        }
+
+        return films
                 .stream()
                 .map(FilmMapper::mapToFilmDto)
                 .toList();
     }
 
+    private void checkDirectorsExist(List<Integer> directorIds) {
+        Set<Integer> uniqueIds = new HashSet<>(directorIds);
+        if (directorRepository.getDirectorsByIds(uniqueIds).size() != uniqueIds.size()) {
+            logNotFoundError("Указаны режиссеры, которых нет в базе");
+        }
+    }
+
+    /**
+     * Режиссеры с id <= 0 не сохраняются и не проверяются - одинаково в POST, PUT /films и в импорте.
+     */
+    private static void removeDirectorsWithoutId(Film film) {
+        film.getDirectors().removeIf(director -> director.getId() <= 0);
+    }
+
+    private String validateImported(CreateFilmRequest request,
+                                    Set<Integer> mpaIds,
+                                    Set<Integer> genreIds,
+                                    Set<Integer> directorIds) {
+        Set<ConstraintViolation<CreateFilmRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            return violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", "));
+        }
+        if (request.getReleaseDate() != null && request.getReleaseDate().isBefore(LocalDate.of(1895, 12, 28))) {
+            return "Дата релиза не может быть раньше 28 декабря 1895 года";
+        }
+        if (request.getDuration() != null && request.getDuration().toSeconds() <= 0) {
+            return "Продолжительность фильма должна быть положительным числом";
+        }
+        if (request.getMpa() == null || !mpaIds.contains(request.getMpa().getId())) {
+            return "Указан рейтинг, которого нет в базе";
+        }
+        if (!request.getGenres().stream().map(Genre::getId).allMatch(genreIds::contains)) {
+            return "Указаны жанры, которых нет в базе";
+        }
+        if (!request.getDirectors().stream()
+                .map(Director::getId)
+                .filter(id -> id > 0)
+                .allMatch(directorIds::contains)) {
+            return "Указаны режиссеры, которых нет в базе";
+        }
+        return null;
+    }
+
+    /**
+     * Записывает пачку в отдельной транзакции и возвращает число добавленных фильмов.
+     * Если пачка не записалась (например, режиссера удалили во время импорта), ее фильмы записываются
+     * по одному, и в отчет попадают только строки, которые не удалось записать. lines - номера строк фильмов.
+     */
+    private int writeImportChunk(List<Film> chunk,
+                                 List<Integer> lines,
+                                 List<FilmImportReport.Chunk> chunks,
+                                 List<FilmImportReport.LineError> errors) {
+        long start = System.nanoTime();
+        List<Film> films = chunk;
+        try {
+            transactionTemplate.executeWithoutResult(status -> filmRepository.addFilms(chunk));
+        } catch (DataAccessException e) {
+            log.warn("Импорт: строки {}-{} не записаны одной пачкой, записываем по одной",
+                    lines.get(0), lines.get(lines.size() - 1), e);
+            films = new ArrayList<>(chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                Film film = chunk.get(i);
+                try {
+                    transactionTemplate.executeWithoutResult(status -> filmRepository.addFilm(film));
+                    films.add(film);
+                } catch (DataAccessException lineError) {
+                    addImportError(errors, lines.get(i), "Строка не записана: "
+                            + lineError.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+        for (Film film : films) {
+            popularityIndex.putFilm(film);
+            searchIndex.putFilm(film);
+        }
+
+        long nanos = Math.max(System.nanoTime() - start, 1);
+        FilmImportReport.Chunk report = FilmImportReport.Chunk.builder()
+                .chunk(chunks.size() + 1)
+                .films(films.size())
+                .millis(nanos / 1_000_000)
+                .filmsPerSecond(films.size() * 1_000_000_000L / nanos)
+                .build();
+        chunks.add(report);
+        log.info("Импорт: пачка {} - {} фильмов за {} мс ({} фильмов/с)",
+                report.getChunk(), report.getFilms(), report.getMillis(), report.getFilmsPerSecond());
+        return films.size();
+    }
+
+    private static void addImportError(List<FilmImportReport.LineError> errors, int line, String message) {
+        if (errors.size() < MAX_IMPORT_ERRORS) {
+            errors.add(FilmImportReport.LineError.builder()
+                    .line(line)
+                    .message(message)
+                    .build());
+        }
+    }
+
     private void logValidationError(String message) {
         log.error(message);
         throw new ValidationException(message);
@@ -303,7 +509,14 @@ public class FilmService {
     }
 
     public List<FilmDTO> searchFilms(String query, Set<String> fields) {
-        return filmRepository.searchFilms(query, fields)
+        List<Film> films;
+        if (searchIndex.isEnabled()) {
+            films = filmRepository.getFilmsByIds(searchIndex.search(query, fields));
+        } else {
+            films = filmRepository.searchFilms(query, fields);
+        }
+
+        return films
                 .stream()
                 .map(FilmMapper::mapToFilmDto)
                 .toList();
@@ -7,7 +7,6 @@ import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.List;
-import java.util.Optional;
 
 import ru.yandex.practicum.filmorate.api.dto.UserDTO;
 import ru.yandex.practicum.filmorate.api.mapper.UserMapper;
@@ -23,41 +22,39 @@ public class FriendshipService {
     private final FriendshipRepository friendshipRepository;
     private final UserRepository userRepository;
     private final EventService eventService;
+    private final TimelineService timelineService;
 
     @Autowired
     public FriendshipService(FriendshipRepository friendshipRepository,
                              UserRepository userRepository,
-                             EventService eventService
+                             EventService eventService,
+                             TimelineService timelineService
     ) {
         this.friendshipRepository = friendshipRepository;
         this.userRepository = userRepository;
         this.eventService = eventService;
+        this.timelineService = timelineService;
     }
 
     public void addFriend(int userId, int friendId) {
-        if (userRepository.getUserById(userId).isEmpty()) {
-            throw new NotFoundIssueException("Пользователь с ID " + userId + " не найден");
-        }
-
-        if (userRepository.getUserById(friendId).isEmpty()) {
-            throw new NotFoundIssueException("Пользователь с ID " + friendId + " не найден");
-        }
+        checkUsersExist(userId, friendId);
 
         if (userId == friendId) {
             throw new ValidationException("Нельзя добавить самого себя в друзья");
         }
 
-        Optional<User> user = userRepository.getUserById(userId);
-        Optional<User> friend = userRepository.getUserById(friendId);
+        User user = User.builder().id(userId).build();
+        User friend = User.builder().id(friendId).build();
 
         friendshipRepository.saveFriendship(Friendship.builder()
-                .user(user.get())
-                .friend(friend.get())
+                .user(user)
+                .friend(friend)
                 .isFriend(false)
                 .build());
+        timelineService.friendshipChanged(userId, friendId);
 
         eventService.createEvent(Event.builder()
-                .user(user.get())
+                .userId(userId)
                 .entityId(friendId)
                 .type(EventType.FRIEND)
                 .operation(EventOperation.ADD)
@@ -67,38 +64,30 @@ public class FriendshipService {
     }
 
     public List<UserDTO> getUserFriends(int userId) {
-        if (userRepository.getUserById(userId).isEmpty()) {
+        if (!userRepository.existsById(userId)) {
             throw new NotFoundIssueException("Пользователь с ID " + userId + " не найден");
         }
 
-        return friendshipRepository.getFriendshipsByUserId(userId)
+        return userRepository.getUsersByIds(friendshipRepository.getFriendIds(userId))
                 .stream()
-                .map(Friendship::getFriend)
                 .map(UserMapper::mapToUserDto)
                 .toList();
     }
 
     public void removeFriendship(int userId, int friendId) {
-        if (userRepository.getUserById(userId).isEmpty()) {
-            throw new NotFoundIssueException("Пользователь с ID " + userId + " не найден");
-        }
+        checkUsersExist(userId, friendId);
 
-        if (userRepository.getUserById(friendId).isEmpty()) {
-            throw new NotFoundIssueException("Пользователь с ID " + friendId + " не найден");
-        }
-
-        Optional<User> user = userRepository.getUserById(userId);
-        Optional<User> friend = userRepository.getUserById(friendId);
-
-        Optional<Friendship> friendship = friendshipRepository.getFriendship(userId, friendId);
-        if (friendship.isEmpty()) {
+        boolean deleted = friendshipRepository.deleteFriendship(Friendship.builder()
+                .user(User.builder().id(userId).build())
+                .friend(User.builder().id(friendId).build())
+                .build());
+        if (!deleted) {
             return;
         }
-
-        friendshipRepository.deleteFriendship(friendship.get());
+        timelineService.friendshipChanged(userId, friendId);
 
         eventService.createEvent(Event.builder()
-                .user(user.get())
+                .userId(userId)
                 .entityId(friendId)
                 .type(EventType.FRIEND)
                 .operation(EventOperation.REMOVE)
@@ -108,27 +97,19 @@ public class FriendshipService {
     }
 
     public List<UserDTO> getCommonFriends(int userOneId, int userTwoId) {
-        if (userRepository.getUserById(userOneId).isEmpty()) {
-            throw new NotFoundIssueException("Пользователь с ID " + userOneId + " не найден");
-        }
-
-        if (userRepository.getUserById(userTwoId).isEmpty()) {
-            throw new NotFoundIssueException("Пользователь с ID " + userTwoId + " не найден");
-        }
+        checkUsersExist(userOneId, userTwoId);
 
-        Optional<User> userOne = userRepository.getUserById(userOneId);
-        Optional<User> userTwo = userRepository.getUserById(userTwoId);
-
-        List<User> userTwoFriendsId = friendshipRepository.getFriendshipsByUserId(userTwoId)
+        return userRepository.getUsersByIds(friendshipRepository.getCommonFriendIds(userOneId, userTwoId))
                 .stream()
-                .map(Friendship::getFriend)
-                .toList();
-
-        return friendshipRepository.getFriendshipsByUserId(userOneId)
-                .stream()
-                .map(Friendship::getFriend)
-                .filter(userTwoFriendsId::contains)
                 .map(UserMapper::mapToUserDto)
                 .toList();
     }
+
+    private void checkUsersExist(int userId, int otherUserId) {
+        if (userRepository.existsAll(List.of(userId, otherUserId))) {
+            return;
+        }
+        int missingId = userRepository.existsById(userId) ? otherUserId : userId;
+        throw new NotFoundIssueException("Пользователь с ID " + missingId + " не найден");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import ru.yandex.practicum.filmorate.repository.FilmRepository;
+
+import java.util.Map;
+
+/**
+ * Периодически сверяет films.like_count с таблицей likes. Поправки счетчиков применяются и к PopularityIndex,
+ * иначе расхождение в индексе осталось бы до перезапуска. Индекс получает именно поправку, а не число
+ * лайков из базы: так она складывается с параллельными changeLikes и не затирает их.
+ */
+@Slf4j
+@Component
+public class LikeCountReconciler {
+    private final FilmRepository filmRepository;
+    private final PopularityIndex popularityIndex;
+
+    @Autowired
+    public LikeCountReconciler(FilmRepository filmRepository, PopularityIndex popularityIndex) {
+        this.filmRepository = filmRepository;
+        this.popularityIndex = popularityIndex;
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.likes.reconcile-interval-ms:600000}",
+            fixedDelayString = "${filmorate.likes.reconcile-interval-ms:600000}")
+    public void reconcile() {
+        Map<Integer, Integer> repaired = filmRepository.reconcileLikeCounts();
+        if (repaired.isEmpty()) {
+            return;
+        }
+        repaired.forEach(popularityIndex::changeLikes);
+        log.warn("Счетчики лайков расходились с таблицей likes и были исправлены у {} фильмов", repaired.size());
+    }
+}
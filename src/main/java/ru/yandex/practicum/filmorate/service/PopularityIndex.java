@@ -0,0 +1,169 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.repository.FilmRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Рейтинг популярности фильмов в памяти.
+ * Фильмы хранятся в упорядоченных множествах (по всем фильмам, по жанру, по году и по паре жанр-год),
+ * элемент множества - число long: в старших 32 битах инвертированное число лайков, в младших id фильма.
+ * Поэтому естественный порядок совпадает с сортировкой "лайки по убыванию, id по возрастанию".
+ */
+@Slf4j
+@Component
+public class PopularityIndex {
+    private final FilmRepository filmRepository;
+    private final boolean enabled;
+
+    private final Map<Long, ConcurrentSkipListSet<Long>> buckets = new ConcurrentHashMap<>();
+    private boolean[] present = new boolean[0];
+    private int[] likes = new int[0];
+    private int[] years = new int[0];
+    private int[][] genres = new int[0][];
+
+    @Autowired
+    public PopularityIndex(FilmRepository filmRepository,
+                           @Value("${filmorate.popularity.in-memory:true}") boolean enabled) {
+        this.filmRepository = filmRepository;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<Film> films = filmRepository.getAllFilms();
+        for (Film film : films) {
+            putFilm(film);
+        }
+        log.info("Индекс популярности построен: {} фильмов за {} мс", films.size(), System.currentTimeMillis() - start);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<Integer> getMostPopularIds(int count, Integer genreId, Integer year) {
+        ConcurrentSkipListSet<Long> bucket = buckets.get(bucketKey(
+                genreId == null ? 0 : genreId,
+                year == null ? 0 : year));
+        if (bucket == null) {
+            return List.of();
+        }
+
+        List<Integer> ids = new ArrayList<>(Math.min(count, bucket.size()));
+        Iterator<Long> iterator = bucket.iterator();
+        while (ids.size() < count && iterator.hasNext()) {
+            ids.add((int) iterator.next().longValue());
+        }
+        return ids;
+    }
+
+    public synchronized void putFilm(Film film) {
+        if (!enabled) {
+            return;
+        }
+        int id = film.getId();
+        ensureCapacity(id);
+
+        int filmLikes = film.getLikesCount();
+        if (present[id]) {
+            filmLikes = likes[id];
+            removeFromBuckets(id);
+        }
+
+        present[id] = true;
+        likes[id] = filmLikes;
+        years[id] = film.getReleaseDate() == null ? 0 : film.getReleaseDate().getYear();
+        genres[id] = film.getGenres().stream()
+                .mapToInt(Genre::getId)
+                .distinct()
+                .toArray();
+        addToBuckets(id);
+    }
+
+    public synchronized void removeFilm(int filmId) {
+        if (!enabled || filmId >= present.length || !present[filmId]) {
+            return;
+        }
+        removeFromBuckets(filmId);
+        present[filmId] = false;
+        likes[filmId] = 0;
+        genres[filmId] = null;
+    }
+
+    public synchronized void changeLikes(int filmId, int delta) {
+        if (!enabled || filmId >= present.length || !present[filmId]) {
+            return;
+        }
+        removeFromBuckets(filmId);
+        likes[filmId] = Math.max(0, likes[filmId] + delta);
+        addToBuckets(filmId);
+    }
+
+    private void addToBuckets(int filmId) {
+        long entry = entry(filmId);
+        for (long key : bucketKeys(filmId)) {
+            buckets.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>()).add(entry);
+        }
+    }
+
+    private void removeFromBuckets(int filmId) {
+        long entry = entry(filmId);
+        for (long key : bucketKeys(filmId)) {
+            ConcurrentSkipListSet<Long> bucket = buckets.get(key);
+            if (bucket != null) {
+                bucket.remove(entry);
+            }
+        }
+    }
+
+    private long entry(int filmId) {
+        return ((long) (Integer.MAX_VALUE - likes[filmId]) << 32) | filmId;
+    }
+
+    private long[] bucketKeys(int filmId) {
+        int year = years[filmId];
+        int[] filmGenres = genres[filmId];
+        long[] keys = new long[2 + filmGenres.length * 2];
+        keys[0] = bucketKey(0, 0);
+        keys[1] = bucketKey(0, year);
+        for (int i = 0; i < filmGenres.length; i++) {
+            keys[2 + i * 2] = bucketKey(filmGenres[i], 0);
+            keys[3 + i * 2] = bucketKey(filmGenres[i], year);
+        }
+        return keys;
+    }
+
+    private static long bucketKey(int genreId, int year) {
+        return ((long) genreId << 32) | (year & 0xFFFFFFFFL);
+    }
+
+    private void ensureCapacity(int filmId) {
+        if (filmId < present.length) {
+            return;
+        }
+        int size = Math.max(filmId + 1, present.length * 2);
+        present = Arrays.copyOf(present, size);
+        likes = Arrays.copyOf(likes, size);
+        years = Arrays.copyOf(years, size);
+        genres = Arrays.copyOf(genres, size);
+    }
+}
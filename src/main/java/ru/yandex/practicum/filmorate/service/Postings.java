@@ -0,0 +1,75 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Отсортированный по возрастанию список id. Новые id обычно больше всех прежних и дописываются в конец.
+ * Занимает память по числу id, а не по величине наибольшего id, как BitSet.
+ * Не потокобезопасен: его владелец сам защищает доступ блокировкой.
+ */
+class Postings {
+    private int[] ids = new int[4];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void add(int id) {
+        int position = size == 0 || ids[size - 1] < id ? -size - 1 : Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            return;
+        }
+        position = -position - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = id;
+        size++;
+    }
+
+    boolean remove(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    int[] intersect(int[] sorted) {
+        int[] common = new int[Math.min(size, sorted.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < sorted.length) {
+            if (ids[i] < sorted[j]) {
+                i++;
+            } else if (ids[i] > sorted[j]) {
+                j++;
+            } else {
+                common[count++] = ids[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(common, count);
+    }
+
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            action.accept(ids[i]);
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ru.yandex.practicum.filmorate.repository.FilmRepository;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Рекомендации фильмов на основе лайков похожих пользователей.
+ * Лайки хранятся в памяти в виде отсортированных списков id (пользователь -> фильмы и фильм -> пользователи):
+ * список занимает память по числу лайков, а не по наибольшему id, как битовое множество.
+ * Готовые рекомендации кешируются по пользователю, в кеше не больше cache-size записей, вытесненные
+ * пересчитываются при следующем чтении. Изменение лайков помечает затронутые записи
+ * устаревшими: такая запись пересчитывается при следующем чтении. Пул потоков пересчитывает их и в фоне,
+ * но его очередь ограничена refresh-queue-size: если она заполнена, задача отбрасывается, и запись
+ * пересчитает чтение. Одна запись стоит в очереди не больше одного раза, пока ее не пересчитают.
+ * Устаревшими помечаются пользователи, у которых меняются соседи (общие лайки с автором изменения).
+ * Лайк меняет и популярность фильма, по которой упорядочены рекомендации, но пользователи, у которых
+ * фильм только в кандидатах, не помечаются: порядок их рекомендаций может отставать до их пересчета.
+ * Полный пересчет (после рестарта или массовой загрузки) распределяет пользователей по ForkJoinPool
+ * и считает пересечения лайков по отсортированным массивам id фильмов.
+ */
+@Slf4j
+@Component
+public class RecommendationEngine {
+    private static final int SIMILAR_USERS_LIMIT = 5;
+    private static final int RECOMMENDATIONS_LIMIT = 20;
+    private static final int REBUILD_BATCH_SIZE = 256;
+
+    private final FilmRepository filmRepository;
+    private final boolean enabled;
+    private final boolean jaccard;
+    private final ExecutorService workers;
+    private final ForkJoinPool rebuildPool;
+    private final boolean rebuildOnStart;
+
+    private final Map<Integer, Postings> userLikes = new HashMap<>();
+    private final Map<Integer, Postings> filmLikers = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Cache<Integer, Recommendation> cache;
+    private final Set<Integer> stale = ConcurrentHashMap.newKeySet();
+    private final AtomicLong version = new AtomicLong();
+    private final Object rebuildMonitor = new Object();
+    private BitSet changedDuringRebuild;
+
+    private final AtomicLong rebuildTotal = new AtomicLong();
+    private final AtomicLong rebuildProcessed = new AtomicLong();
+    private volatile double rebuildThroughput;
+    private final Timer rebuildTimer;
+
+    @Autowired
+    public RecommendationEngine(FilmRepository filmRepository,
+                                MeterRegistry meterRegistry,
+                                @Value("${filmorate.recommendations.in-memory:true}") boolean enabled,
+                                @Value("${filmorate.recommendations.similarity:overlap}") String similarity,
+                                @Value("${filmorate.recommendations.workers:2}") int workers,
+                                @Value("${filmorate.recommendations.refresh-queue-size:10000}") int refreshQueueSize,
+                                @Value("${filmorate.recommendations.rebuild-parallelism:0}") int rebuildParallelism,
+                                @Value("${filmorate.recommendations.rebuild-on-start:true}") boolean rebuildOnStart,
+                                @Value("${filmorate.recommendations.cache-size:100000}") long cacheSize) {
+        this.filmRepository = filmRepository;
+        this.enabled = enabled;
+        this.jaccard = "jaccard".equalsIgnoreCase(similarity);
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(refreshQueueSize), new ThreadPoolExecutor.DiscardPolicy());
+        this.rebuildPool = new ForkJoinPool(rebuildParallelism > 0
+                ? rebuildParallelism
+                : Runtime.getRuntime().availableProcessors());
+        this.rebuildOnStart = rebuildOnStart;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .<Integer, Recommendation>evictionListener((userId, recommendation, cause) -> stale.remove(userId))
+                .build();
+
+        this.rebuildTimer = Timer.builder("filmorate.recommendations.rebuild")
+                .description("Длительность полного пересчета рекомендаций")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.rebuild.total", rebuildTotal, AtomicLong::get)
+                .description("Пользователей в текущем полном пересчете")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.rebuild.processed", rebuildProcessed, AtomicLong::get)
+                .description("Пользователей, уже обработанных в текущем полном пересчете")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.rebuild.throughput", this, engine -> engine.rebuildThroughput)
+                .description("Скорость последнего полного пересчета")
+                .baseUnit("users/s")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.recommendations.cached", cache, Cache::estimatedSize)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void warmUp() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            filmRepository.forEachLike((filmId, userId) -> {
+                userLikes.computeIfAbsent(userId, id -> new Postings()).add(filmId);
+                filmLikers.computeIfAbsent(filmId, id -> new Postings()).add(userId);
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Лайки для рекомендаций загружены: {} пользователей за {} мс",
+                userLikes.size(), System.currentTimeMillis() - start);
+
+        if (rebuildOnStart) {
+            rebuildPool.execute(this::rebuildAll);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdownNow();
+        rebuildPool.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<Integer> getRecommendedFilmIds(int userId) {
+        Recommendation cached = cache.getIfPresent(userId);
+        if (cached != null && !stale.contains(userId)) {
+            return cached.filmIds();
+        }
+        return refresh(userId);
+    }
+
+    public synchronized void rebuildAll() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        synchronized (rebuildMonitor) {
+            changedDuringRebuild = new BitSet();
+        }
+        long computedAt = version.incrementAndGet();
+        Snapshot snapshot = snapshot();
+        rebuildTotal.set(snapshot.userIds().length);
+        rebuildProcessed.set(0);
+        log.info("Полный пересчет рекомендаций: {} пользователей, {} потоков",
+                snapshot.userIds().length, rebuildPool.getParallelism());
+
+        rebuildPool.invoke(new RebuildTask(snapshot, computedAt, 0, snapshot.userIds().length));
+        BitSet changed;
+        synchronized (rebuildMonitor) {
+            changed = changedDuringRebuild;
+            changedDuringRebuild = null;
+        }
+        markStale(changed);
+
+        long elapsed = System.nanoTime() - start;
+        rebuildTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        rebuildThroughput = snapshot.userIds().length / Math.max(elapsed / 1e9, 1e-9);
+        log.info("Рекомендации пересчитаны: {} пользователей за {} мс ({} пользователей/с)",
+                snapshot.userIds().length, TimeUnit.NANOSECONDS.toMillis(elapsed), Math.round(rebuildThroughput));
+    }
+
+    public void addLike(int filmId, int userId) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            userLikes.computeIfAbsent(userId, id -> new Postings()).add(filmId);
+            filmLikers.computeIfAbsent(filmId, id -> new Postings()).add(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        markStale(neighbours(userId));
+    }
+
+    public void removeLike(int filmId, int userId) {
+        if (!enabled) {
+            return;
+        }
+        BitSet neighbours = neighbours(userId);
+        lock.writeLock().lock();
+        try {
+            removePosting(userLikes, userId, filmId);
+            removePosting(filmLikers, filmId, userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        markStale(neighbours);
+    }
+
+    public void removeFilm(int filmId) {
+        if (!enabled) {
+            return;
+        }
+        int[] users;
+        lock.readLock().lock();
+        try {
+            Postings likers = filmLikers.get(filmId);
+            users = likers == null ? new int[0] : likers.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+        BitSet neighbours = new BitSet();
+        for (int userId : users) {
+            neighbours.or(neighbours(userId));
+        }
+
+        lock.writeLock().lock();
+        try {
+            Postings likers = filmLikers.remove(filmId);
+            if (likers != null) {
+                likers.forEach(userId -> removePosting(userLikes, userId, filmId));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        markStale(neighbours);
+    }
+
+    public void removeUser(int userId) {
+        if (!enabled) {
+            return;
+        }
+        BitSet neighbours = neighbours(userId);
+        lock.writeLock().lock();
+        try {
+            Postings films = userLikes.remove(userId);
+            if (films != null) {
+                films.forEach(filmId -> removePosting(filmLikers, filmId, userId));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        cache.invalidate(userId);
+        stale.remove(userId);
+        neighbours.clear(userId);
+        markStale(neighbours);
+    }
+
+    /**
+     * Версия берется после снятия отметки stale: если отметку снял пересчет, начатый до изменения лайков,
+     * его результат должен оказаться новее кешированного, иначе устаревший список останется без отметки.
+     */
+    private List<Integer> refresh(int userId) {
+        stale.remove(userId);
+        long computedAt = version.incrementAndGet();
+        List<Integer> filmIds = compute(userId);
+        cache.asMap().merge(userId, new Recommendation(computedAt, filmIds),
+                (current, fresh) -> fresh.version() > current.version() ? fresh : current);
+        return filmIds;
+    }
+
+    /**
+     * Пустые списки удаляются, чтобы память не оставалась за пользователями и фильмами без лайков.
+     */
+    private static void removePosting(Map<Integer, Postings> postings, int key, int id) {
+        Postings ids = postings.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            postings.remove(key);
+        }
+    }
+
+    /**
+     * Пользователи, чьи рекомендации зависят от лайков userId. Собираются до изменения лайков,
+     * а помечаются устаревшими после него: иначе фоновый пересчет может успеть посчитать старые данные.
+     */
+    private BitSet neighbours(int userId) {
+        BitSet neighbours = new BitSet();
+        lock.readLock().lock();
+        try {
+            Postings films = userLikes.get(userId);
+            if (films != null) {
+                films.forEach(filmId -> filmLikers.get(filmId).forEach(neighbours::set));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        neighbours.set(userId);
+        return neighbours;
+    }
+
+    /**
+     * Пока идет полный пересчет, затронутые пользователи еще и запоминаются: пересчет считает по снимку,
+     * сделанному до изменения, и его результат для них нужно будет пересчитать заново.
+     */
+    private void markStale(BitSet userIds) {
+        synchronized (rebuildMonitor) {
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.or(userIds);
+            }
+        }
+        userIds.stream().forEach(this::markStale);
+    }
+
+    private void markStale(int userId) {
+        if (cache.asMap().containsKey(userId) && stale.add(userId)) {
+            workers.execute(() -> {
+                if (stale.contains(userId)) {
+                    refresh(userId);
+                }
+            });
+        }
+    }
+
+    private List<Integer> compute(int userId) {
+        lock.readLock().lock();
+        try {
+            Postings liked = userLikes.get(userId);
+            if (liked == null || liked.isEmpty()) {
+                return List.of();
+            }
+
+            Map<Integer, Integer> overlaps = new HashMap<>();
+            liked.forEach(filmId -> filmLikers.get(filmId).forEach(otherId -> {
+                if (otherId != userId) {
+                    overlaps.merge(otherId, 1, Integer::sum);
+                }
+            }));
+
+            List<Map.Entry<Integer, Double>> scores = new ArrayList<>(overlaps.size());
+            for (Map.Entry<Integer, Integer> overlap : overlaps.entrySet()) {
+                double score = overlap.getValue();
+                if (jaccard) {
+                    int union = liked.size() + userLikes.get(overlap.getKey()).size() - overlap.getValue();
+                    score = score / union;
+                }
+                scores.add(Map.entry(overlap.getKey(), score));
+            }
+            scores.sort(Map.Entry.<Integer, Double>comparingByValue().reversed()
+                    .thenComparing(Map.Entry.comparingByKey()));
+
+            BitSet candidates = new BitSet();
+            scores.stream()
+                    .limit(SIMILAR_USERS_LIMIT)
+                    .forEach(similar -> userLikes.get(similar.getKey()).forEach(candidates::set));
+            liked.forEach(candidates::clear);
+
+            return rank(candidates, filmId -> filmLikers.get(filmId).size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Integer> compute(int userId, Snapshot snapshot) {
+        int[] liked = snapshot.userFilms().get(userId);
+        if (liked == null || liked.length == 0) {
+            return List.of();
+        }
+
+        BitSet neighbours = new BitSet();
+        for (int filmId : liked) {
+            for (int otherId : snapshot.filmUsers().get(filmId)) {
+                neighbours.set(otherId);
+            }
+        }
+        neighbours.clear(userId);
+
+        int[] topUsers = new int[SIMILAR_USERS_LIMIT];
+        double[] topScores = new double[SIMILAR_USERS_LIMIT];
+        int found = 0;
+        for (int otherId = neighbours.nextSetBit(0); otherId >= 0; otherId = neighbours.nextSetBit(otherId + 1)) {
+            int[] otherFilms = snapshot.userFilms().get(otherId);
+            int overlap = intersectionSize(liked, otherFilms);
+            double score = jaccard ? (double) overlap / (liked.length + otherFilms.length - overlap) : overlap;
+
+            int position = found;
+            while (position > 0 && topScores[position - 1] < score) {
+                position--;
+            }
+            if (position < SIMILAR_USERS_LIMIT) {
+                for (int i = Math.min(found, SIMILAR_USERS_LIMIT - 1); i > position; i--) {
+                    topUsers[i] = topUsers[i - 1];
+                    topScores[i] = topScores[i - 1];
+                }
+                topUsers[position] = otherId;
+                topScores[position] = score;
+                found = Math.min(found + 1, SIMILAR_USERS_LIMIT);
+            }
+        }
+
+        BitSet candidates = new BitSet();
+        for (int i = 0; i < found; i++) {
+            for (int filmId : snapshot.userFilms().get(topUsers[i])) {
+                candidates.set(filmId);
+            }
+        }
+        for (int filmId : liked) {
+            candidates.clear(filmId);
+        }
+
+        return rank(candidates, filmId -> snapshot.filmUsers().get(filmId).length);
+    }
+
+    private static List<Integer> rank(BitSet candidates, IntUnaryOperator popularity) {
+        return candidates.stream()
+                .boxed()
+                .sorted(Comparator.comparingInt((Integer filmId) -> popularity.applyAsInt(filmId))
+                        .reversed()
+                        .thenComparing(Comparator.naturalOrder()))
+                .limit(RECOMMENDATIONS_LIMIT)
+                .toList();
+    }
+
+    private static int intersectionSize(int[] first, int[] second) {
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                size++;
+                i++;
+                j++;
+            }
+        }
+        return size;
+    }
+
+    private Snapshot snapshot() {
+        lock.readLock().lock();
+        try {
+            Map<Integer, int[]> userFilms = new HashMap<>();
+            userLikes.forEach((userId, films) -> userFilms.put(userId, films.toArray()));
+            Map<Integer, int[]> filmUsers = new HashMap<>();
+            filmLikers.forEach((filmId, users) -> filmUsers.put(filmId, users.toArray()));
+            int[] userIds = userFilms.keySet().stream()
+                    .mapToInt(Integer::intValue)
+                    .sorted()
+                    .toArray();
+            return new Snapshot(userIds, userFilms, filmUsers);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void reportProgress(int batch) {
+        long total = rebuildTotal.get();
+        long done = rebuildProcessed.addAndGet(batch);
+        long step = Math.max(1, total / 10);
+        if (done / step > (done - batch) / step) {
+            log.info("Пересчет рекомендаций: {} из {} пользователей ({}%)", done, total, done * 100 / total);
+        }
+    }
+
+    private record Recommendation(long version, List<Integer> filmIds) {
+    }
+
+    private record Snapshot(int[] userIds, Map<Integer, int[]> userFilms, Map<Integer, int[]> filmUsers) {
+    }
+
+    private class RebuildTask extends RecursiveAction {
+        private final Snapshot snapshot;
+        private final long computedAt;
+        private final int from;
+        private final int to;
+
+        RebuildTask(Snapshot snapshot, long computedAt, int from, int to) {
+            this.snapshot = snapshot;
+            this.computedAt = computedAt;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > REBUILD_BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RebuildTask(snapshot, computedAt, from, middle),
+                        new RebuildTask(snapshot, computedAt, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                int userId = snapshot.userIds()[i];
+                Recommendation recommendation = new Recommendation(computedAt,
+                        RecommendationEngine.this.compute(userId, snapshot));
+                cache.asMap().merge(userId, recommendation,
+                        (current, fresh) -> fresh.version() > current.version() ? fresh : current);
+            }
+            reportProgress(to - from);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.api.dto.CreateReviewRequest;
 import ru.yandex.practicum.filmorate.api.dto.ReviewDTO;
@@ -18,34 +19,46 @@ import ru.yandex.practicum.filmorate.repository.ReviewRepository;
 import ru.yandex.practicum.filmorate.repository.UserRepository;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 
 @Slf4j
 @Service
 public class ReviewService {
+    private static final Comparator<Review> BY_USEFUL = Comparator.comparingInt(Review::getUseful).reversed()
+            .thenComparingInt(Review::getReviewId);
+
     private final ReviewRepository reviewRepository;
     private final UserRepository userRepository;
     private final FilmRepository filmRepository;
     private final EventService eventService;
     private final FilmService filmService;
+    private final ReviewUsefulCounter usefulCounter;
+    private final DeletionPurger deletionPurger;
 
     @Autowired
     public ReviewService(ReviewRepository reviewRepository,
                          UserRepository userRepository,
                          FilmRepository filmRepository,
                          EventService eventService,
-                         FilmService filmService
+                         FilmService filmService,
+                         ReviewUsefulCounter usefulCounter,
+                         DeletionPurger deletionPurger
     ) {
         this.reviewRepository = reviewRepository;
         this.userRepository = userRepository;
         this.filmRepository = filmRepository;
         this.eventService = eventService;
         this.filmService = filmService;
+        this.usefulCounter = usefulCounter;
+        this.deletionPurger = deletionPurger;
     }
 
-    public List<ReviewDTO> getReviews(int filmId,  int count) {
-        log.info("Запрос на получения всех отзывов: filmId={}, count={}", filmId, count);
+    public List<ReviewDTO> getReviews(int filmId, int count, Integer after) {
+        log.info("Запрос на получения всех отзывов: filmId={}, count={}, after={}", filmId, count, after);
 
         if (filmId > 0) {
             filmService.checkFilmExists(filmId);
@@ -53,17 +66,12 @@ public class ReviewService {
 
         List<ReviewDTO> dtoList;
         try {
-            if (filmId == 0) {
-                dtoList = reviewRepository.getAllReviews(count)
-                        .stream()
-                        .map(ReviewMapper::mapToReviewDto)
-                        .toList();
-            } else {
-                dtoList = reviewRepository.getAllReviewsByFilmId(filmId, count)
-                        .stream()
-                        .map(ReviewMapper::mapToReviewDto)
-                        .toList();
-            }
+            dtoList = usefulCounter.read(() -> getTopReviews(filmId, count, after))
+                    .stream()
+                    .map(ReviewMapper::mapToReviewDto)
+                    .toList();
+        } catch (NotFoundIssueException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Ошибка при получении отзывов: filmId={}, count={}", filmId, count, e);
             throw new RuntimeException("Ошибка при получении отзывов", e);
@@ -81,7 +89,7 @@ public class ReviewService {
     public ReviewDTO getReview(int id) {
         log.info("Запрос на получения отзыва с id = {}", id);
 
-        Review review = reviewRepository.getReviewById(id)
+        Review review = findReview(id)
                 .orElseThrow(() -> new NotFoundIssueException("Отзыв не найден"));
 
         log.info("Отзыв с id = {} успешно найден", review.getReviewId());
@@ -96,18 +104,20 @@ public class ReviewService {
             throw new ValidationException("Id фильма и пользователя не может быть null");
         }
 
-        userRepository.getUserById(reviewRequest.getUserId())
-                .orElseThrow(() -> new NotFoundIssueException("Пользователь не найден"));
+        if (!userRepository.existsById(reviewRequest.getUserId())) {
+            throw new NotFoundIssueException("Пользователь не найден");
+        }
 
-        filmRepository.getFilmById(reviewRequest.getFilmId())
-                .orElseThrow(() -> new NotFoundIssueException("Фильм не найден"));
+        if (!filmRepository.existsById(reviewRequest.getFilmId())) {
+            throw new NotFoundIssueException("Фильм не найден");
+        }
 
         Review review = reviewRepository.addReview(ReviewMapper.mapToReview(reviewRequest));
 
         log.info("Отзыв с id = {} успешно создан", review.getReviewId());
 
         eventService.createEvent(Event.builder()
-                .user(userRepository.getUserById(reviewRequest.getUserId()).orElseThrow())
+                .userId(reviewRequest.getUserId())
                 .entityId(review.getReviewId())
                 .type(EventType.REVIEW)
                 .operation(EventOperation.ADD)
@@ -129,18 +139,22 @@ public class ReviewService {
 
         optReview.orElseThrow(() -> new NotFoundIssueException("Отзыв не найден"));
 
-        userRepository.getUserById(optReview.get().getUserId())
-                .orElseThrow(() -> new NotFoundIssueException("Пользователь не найден"));
+        if (!userRepository.existsById(optReview.get().getUserId())) {
+            throw new NotFoundIssueException("Пользователь не найден");
+        }
 
-        filmRepository.getFilmById(optReview.get().getFilmId())
-                .orElseThrow(() -> new NotFoundIssueException("Фильм не найден"));
+        if (!filmRepository.existsById(optReview.get().getFilmId())) {
+            throw new NotFoundIssueException("Фильм не найден");
+        }
 
-        Review review = reviewRepository.updateReview(ReviewMapper.mapToReview(reviewRequest));
+        reviewRepository.updateReview(ReviewMapper.mapToReview(reviewRequest));
+        Review review = findReview(reviewRequest.getReviewId())
+                .orElseThrow(() -> new NotFoundIssueException("Отзыв не найден"));
 
         log.info("Отзыв с id = {} успешно обновлен", review.getReviewId());
 
         eventService.createEvent(Event.builder()
-                .user(userRepository.getUserById(review.getUserId()).orElseThrow())
+                .userId(review.getUserId())
                 .entityId(review.getReviewId())
                 .type(EventType.REVIEW)
                 .operation(EventOperation.UPDATE)
@@ -154,15 +168,16 @@ public class ReviewService {
     public ReviewDTO deleteReview(int id) {
         log.info("Запрос на удаление отзыва с id = {}", id);
 
-        Review review = reviewRepository.getReviewById(id)
+        Review review = findReview(id)
                 .orElseThrow(() -> new NotFoundIssueException("Отзыв не найден"));
 
         reviewRepository.deleteReview(id);
+        usefulCounter.discard(id);
 
         log.info("Отзыв с id = {} успешно удален", review.getReviewId());
 
         eventService.createEvent(Event.builder()
-                .user(userRepository.getUserById(review.getUserId()).orElseThrow())
+                .userId(review.getUserId())
                 .entityId(review.getReviewId())
                 .type(EventType.REVIEW)
                 .operation(EventOperation.REMOVE)
@@ -176,18 +191,18 @@ public class ReviewService {
     public void addLikeReview(int reviewId, int userId) {
         log.info("Запрос на добавление лайка отзыву id = {} от пользователя id = {}", reviewId, userId);
 
-        reviewRepository.getReviewById(reviewId)
-                .orElseThrow(() -> new NotFoundIssueException("Отзыв не найден"));
+        if (!reviewRepository.existsById(reviewId)) {
+            throw new NotFoundIssueException("Отзыв не найден");
+        }
 
-        userRepository.getUserById(userId)
-                .orElseThrow(() -> new NotFoundIssueException("Пользователь не найден"));
+        if (!userRepository.existsById(userId)) {
+            throw new NotFoundIssueException("Пользователь не найден");
+        }
 
-        Optional<Boolean> reaction = reviewRepository.findUserReviewReaction(reviewId, userId);
-        if (reaction.isEmpty()) {
-            reviewRepository.addLikeReview(reviewId, userId);
+        Optional<Boolean> previous = putReaction(reviewId, userId, true);
+        if (previous.isEmpty()) {
             log.info("Лайк успешно добавлен (пользователь id = {}, отзыв id = {})", userId, reviewId);
-        } else if (reaction.orElse(false)) {
-            reviewRepository.updateReviewReaction(reviewId, userId, true);
+        } else if (!previous.get()) {
             log.info("Дизлайк заменён на лайк (пользователь id = {}, отзыв id = {})", userId, reviewId);
         } else {
             log.warn("Нельзя поставить лайк дважды (пользователь id = {}, отзыв id = {})", userId, reviewId);
@@ -198,18 +213,18 @@ public class ReviewService {
     public void addDislikeReview(int reviewId, int userId) {
         log.info("Запрос на добавление дизлайка отзыву id = {} от пользователя id = {}", reviewId, userId);
 
-        reviewRepository.getReviewById(reviewId)
-                .orElseThrow(() -> new NotFoundIssueException("Отзыв не найден"));
+        if (!reviewRepository.existsById(reviewId)) {
+            throw new NotFoundIssueException("Отзыв не найден");
+        }
 
-        userRepository.getUserById(userId)
-                .orElseThrow(() -> new NotFoundIssueException("Пользователь не найден"));
+        if (!userRepository.existsById(userId)) {
+            throw new NotFoundIssueException("Пользователь не найден");
+        }
 
-        Optional<Boolean> reaction = reviewRepository.findUserReviewReaction(reviewId, userId);
-        if (reaction.isEmpty()) {
-            reviewRepository.addDislikeReview(reviewId, userId);
+        Optional<Boolean> previous = putReaction(reviewId, userId, false);
+        if (previous.isEmpty()) {
             log.info("Дизлайк успешно добавлен (пользователь id = {}, отзыв id = {})", userId, reviewId);
-        } else if (reaction.orElse(true)) {
-            reviewRepository.updateReviewReaction(reviewId, userId, false);
+        } else if (previous.get()) {
             log.info("Лайк заменён на дизлайк (пользователь id = {}, отзыв id = {})", userId, reviewId);
         } else {
             log.warn("Нельзя поставить дизлайк дважды (пользователь id = {}, отзыв id = {})", userId, reviewId);
@@ -220,13 +235,18 @@ public class ReviewService {
     public void delLikeReview(int reviewId, int userId) {
         log.info("Запрос на удаление лайка отзыву с id = {} от пользователя с id = {}", reviewId, userId);
 
-        reviewRepository.getReviewById(reviewId)
-                .orElseThrow(() -> new NotFoundIssueException("Отзыв не найден"));
+        if (!reviewRepository.existsById(reviewId)) {
+            throw new NotFoundIssueException("Отзыв не найден");
+        }
 
-        userRepository.getUserById(userId)
-                .orElseThrow(() -> new NotFoundIssueException("Пользователь не найден"));
+        if (!userRepository.existsById(userId)) {
+            throw new NotFoundIssueException("Пользователь не найден");
+        }
 
-        reviewRepository.delLikeReview(reviewId, userId);
+        if (!removeReaction(reviewId, userId, true)) {
+            log.debug("Лайк пользователя {} к отзыву {} не найден", userId, reviewId);
+            return;
+        }
 
         log.info("Лайк от пользователя с id = {} к отзыву с id = {} успешно удален", userId, reviewId);
     }
@@ -234,14 +254,132 @@ public class ReviewService {
     public void delDislikeReview(int reviewId, int userId) {
         log.info("Запрос на удаление дизлайка отзыву с id = {} от пользователя с id = {}", reviewId, userId);
 
-        reviewRepository.getReviewById(reviewId)
-                .orElseThrow(() -> new NotFoundIssueException("Отзыв не найден"));
+        if (!reviewRepository.existsById(reviewId)) {
+            throw new NotFoundIssueException("Отзыв не найден");
+        }
 
-        userRepository.getUserById(userId)
-                .orElseThrow(() -> new NotFoundIssueException("Пользователь не найден"));
+        if (!userRepository.existsById(userId)) {
+            throw new NotFoundIssueException("Пользователь не найден");
+        }
 
-        reviewRepository.delDislikeReview(reviewId, userId);
+        if (!removeReaction(reviewId, userId, false)) {
+            log.debug("Дизлайк пользователя {} к отзыву {} не найден", userId, reviewId);
+            return;
+        }
 
         log.info("Дизлайк от пользователя с id = {} к отзыву с id = {} успешно удален", userId, reviewId);
     }
-}
\ No newline at end of file
+
+    private Optional<Review> findReview(int id) {
+        return usefulCounter.read(() -> reviewRepository.getReviewById(id)
+                .filter(this::isVisible)
+                .map(usefulCounter::merge));
+    }
+
+    /**
+     * Отзывы удаленных пользователей и к удаленным фильмам не показываются, пока их не удалит DeletionPurger.
+     */
+    private boolean isVisible(Review review) {
+        return !deletionPurger.isUserDeleted(review.getUserId()) && !deletionPurger.isFilmDeleted(review.getFilmId());
+    }
+
+    /**
+     * Отзывы без незаписанных голосов приходят из базы уже отсортированными, отзывы с такими голосами
+     * загружаются по id с поправкой рейтинга, и общий список сортируется заново.
+     * Если задан after, возвращаются отзывы, идущие в этом порядке после отзыва с id = after.
+     */
+    private List<Review> getTopReviews(int filmId, int count, Integer after) {
+        int[] pendingIds = usefulCounter.pendingIds();
+        Optional<Review> cursor = Optional.ofNullable(after)
+                .map(id -> findCursor(id, filmId));
+        List<Review> reviews = new ArrayList<>(cursor
+                .map(c -> filmId == 0
+                        ? reviewRepository.getReviewsAfter(count, c.getUseful(), c.getReviewId(), pendingIds)
+                        : reviewRepository.getReviewsByFilmIdAfter(filmId, count, c.getUseful(), c.getReviewId(),
+                                pendingIds))
+                .orElseGet(() -> filmId == 0
+                        ? reviewRepository.getAllReviews(count, pendingIds)
+                        : reviewRepository.getAllReviewsByFilmId(filmId, count, pendingIds)));
+        if (pendingIds.length == 0) {
+            return reviews;
+        }
+
+        int maxUseful = cursor.map(c -> maxUsefulInDb(c, pendingIds)).orElse(Integer.MAX_VALUE);
+        List<Review> pendingReviews = filmId == 0
+                ? reviewRepository.getReviewsByIds(pendingIds, maxUseful)
+                : reviewRepository.getReviewsByFilmIdAndIds(filmId, pendingIds, maxUseful);
+        pendingReviews.stream()
+                .map(usefulCounter::merge)
+                .filter(review -> cursor.isEmpty() || BY_USEFUL.compare(review, cursor.get()) > 0)
+                .forEach(reviews::add);
+        return reviews.stream()
+                .sorted(BY_USEFUL)
+                .limit(count)
+                .toList();
+    }
+
+    /**
+     * Граница рейтинга в базе для отзывов с незаписанными голосами: после курсора могут идти только те,
+     * у кого useful + delta <= useful курсора, то есть useful <= useful курсора - наименьшая delta.
+     * Точное сравнение с курсором выполняется после merge.
+     */
+    private int maxUsefulInDb(Review cursor, int[] pendingIds) {
+        int minDelta = Arrays.stream(pendingIds)
+                .map(usefulCounter::pendingDelta)
+                .min()
+                .orElse(0);
+        long bound = (long) cursor.getUseful() - minDelta;
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, bound));
+    }
+
+    private Review findCursor(int reviewId, int filmId) {
+        return reviewRepository.getReviewById(reviewId)
+                .filter(review -> filmId == 0 || review.getFilmId() == filmId)
+                .map(usefulCounter::merge)
+                .orElseThrow(() -> new NotFoundIssueException("Отзыв с id = " + reviewId + " не найден"));
+    }
+
+    /**
+     * Ставит реакцию и учитывает изменение рейтинга в счетчике. Если первую реакцию пользователя
+     * одновременно вставил другой запрос, повторяем: теперь строка уже есть и будет заблокирована.
+     */
+    private Optional<Boolean> putReaction(int reviewId, int userId, boolean isPositive) {
+        usefulCounter.begin(reviewId);
+        try {
+            Optional<Boolean> previous;
+            try {
+                previous = reviewRepository.putReaction(reviewId, userId, isPositive);
+            } catch (DuplicateKeyException e) {
+                previous = reviewRepository.putReaction(reviewId, userId, isPositive);
+            }
+
+            int delta = score(isPositive) - previous.map(ReviewService::score).orElse(0);
+            if (delta != 0) {
+                usefulCounter.add(reviewId, delta);
+            }
+            return previous;
+        } finally {
+            usefulCounter.end(reviewId);
+        }
+    }
+
+    /**
+     * Снимает реакцию, если она совпадает с isPositive, и учитывает изменение рейтинга в счетчике.
+     */
+    private boolean removeReaction(int reviewId, int userId, boolean isPositive) {
+        usefulCounter.begin(reviewId);
+        try {
+            if (!reviewRepository.removeReaction(reviewId, userId, isPositive)) {
+                return false;
+            }
+            usefulCounter.add(reviewId, -score(isPositive));
+            return true;
+        } finally {
+            usefulCounter.end(reviewId);
+        }
+    }
+
+    private static int score(boolean isPositive) {
+        return isPositive ? 1 : -1;
+    }
+}
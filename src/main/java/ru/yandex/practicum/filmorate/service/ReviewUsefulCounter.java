@@ -0,0 +1,212 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.repository.ReviewRepository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Изменения рейтинга полезности отзывов, еще не записанные в reviews.useful.
+ * Голоса копятся в ConcurrentHashMap атомарным merge по отзыву, общей блокировки на голос нет.
+ * Фоновая задача раз в filmorate.reviews.useful-flush-interval-ms забирает накопленные суммы (inFlight)
+ * и записывает их одной пачкой без блокировок.
+ * <p>
+ * Чтение отзывов выполняется через read по схеме seqlock: version нечетна, пока суммы переносятся
+ * в inFlight и пока фиксируется транзакция записи. Результат принимается, только если version
+ * не менялась за время чтения и была четной, иначе чтение повторяется. Пока пачка не зафиксирована,
+ * база ее не видит и inFlight прибавляется к значению из базы, после фиксации inFlight пуст -
+ * так каждый голос учитывается ровно один раз.
+ * <p>
+ * Голос сначала фиксируется в review_likes и только потом попадает в pending, и при падении между ними
+ * или до записи пачки изменение рейтинга теряется. Поэтому reconcile сверяет reviews.useful с review_likes.
+ * Реакции выполняются между begin и end: пока реакция на отзыв идет или ее изменение не записано,
+ * отзыв не сверяется, иначе изменение учлось бы дважды.
+ */
+@Slf4j
+@Component
+public class ReviewUsefulCounter {
+    private final ReviewRepository reviewRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Timer flushTimer;
+    private final AtomicLong version = new AtomicLong();
+    private volatile ConcurrentHashMap<Integer, Integer> pending = new ConcurrentHashMap<>();
+    private volatile Map<Integer, Integer> inFlight = Map.of();
+    private final ConcurrentHashMap<Integer, Integer> reacting = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ReviewUsefulCounter(ReviewRepository reviewRepository,
+                               TransactionTemplate transactionTemplate,
+                               MeterRegistry meterRegistry) {
+        this.reviewRepository = reviewRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.flushTimer = Timer.builder("filmorate.reviews.useful.flush")
+                .description("Запись накопленных изменений рейтинга отзывов")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.reviews.useful.pending", this, counter -> counter.pending.size())
+                .description("Отзывов с незаписанными изменениями рейтинга")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Если flush успел забрать карту, в которую попал голос, и уже выгрузил ее, голос переносится в новую карту.
+     * Удаление из старой карты атомарно, поэтому голос достанется либо flush, либо новой карте.
+     */
+    public void add(int reviewId, int delta) {
+        ConcurrentHashMap<Integer, Integer> current = pending;
+        current.merge(reviewId, delta, Integer::sum);
+        if (current != pending) {
+            Integer late = current.remove(reviewId);
+            if (late != null) {
+                add(reviewId, late);
+            }
+        }
+    }
+
+    /**
+     * Отмечает начало реакции на отзыв, до записи в review_likes.
+     */
+    public void begin(int reviewId) {
+        reacting.merge(reviewId, 1, Integer::sum);
+    }
+
+    /**
+     * Отмечает конец реакции на отзыв, после add или после ошибки.
+     */
+    public void end(int reviewId) {
+        reacting.computeIfPresent(reviewId, (id, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Выполняет чтение, согласованное с записью пачек. reader может быть вызван несколько раз
+     * и не должен ничего изменять.
+     */
+    public <T> T read(Supplier<T> reader) {
+        while (true) {
+            long before = version.get();
+            if ((before & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            T result = reader.get();
+            if (version.get() == before) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Id отзывов, у которых есть незаписанные изменения. Вызывается внутри read.
+     */
+    public int[] pendingIds() {
+        return IntStream.concat(
+                        pending.keySet().stream().mapToInt(Integer::intValue),
+                        inFlight.keySet().stream().mapToInt(Integer::intValue))
+                .distinct()
+                .toArray();
+    }
+
+    /**
+     * Незаписанное изменение рейтинга отзыва. Вызывается внутри read.
+     */
+    public int pendingDelta(int reviewId) {
+        return pending.getOrDefault(reviewId, 0) + inFlight.getOrDefault(reviewId, 0);
+    }
+
+    /**
+     * Добавляет к рейтингу из базы незаписанные изменения. Вызывается внутри read.
+     */
+    public Review merge(Review review) {
+        review.setUseful(review.getUseful() + pendingDelta(review.getReviewId()));
+        return review;
+    }
+
+    public void discard(int reviewId) {
+        pending.remove(reviewId);
+    }
+
+    /**
+     * Записывает накопленные изменения и исправляет reviews.useful по review_likes у отзывов без идущих
+     * реакций и незаписанных изменений. Возвращает поправки по id отзыва.
+     * Реакция, начатая после выбора отзывов, могла успеть зафиксироваться до подсчета, поэтому перед
+     * фиксацией отзывы проверяются еще раз, и при совпадении сверка откатывается до следующего раза.
+     * flush не идет параллельно: метод синхронизирован вместе с ним.
+     */
+    public synchronized Map<Integer, Integer> reconcile() {
+        flush();
+        int[] changing = IntStream.concat(
+                        reacting.keySet().stream().mapToInt(Integer::intValue),
+                        pending.keySet().stream().mapToInt(Integer::intValue))
+                .distinct()
+                .toArray();
+        return transactionTemplate.execute(status -> {
+            Map<Integer, Integer> repaired = reviewRepository.reconcileUseful(changing);
+            if (repaired.keySet().stream().anyMatch(id -> reacting.containsKey(id) || pending.containsKey(id))) {
+                log.debug("Сверка рейтинга отзывов отложена: отзывы изменились во время сверки");
+                status.setRollbackOnly();
+                return Map.of();
+            }
+            return repaired;
+        });
+    }
+
+    @PreDestroy
+    @Scheduled(initialDelayString = "${filmorate.reviews.useful-flush-interval-ms:1000}",
+            fixedDelayString = "${filmorate.reviews.useful-flush-interval-ms:1000}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        version.incrementAndGet();
+        ConcurrentHashMap<Integer, Integer> drained = pending;
+        pending = new ConcurrentHashMap<>();
+        Map<Integer, Integer> batch = new HashMap<>();
+        for (Integer reviewId : drained.keySet()) {
+            Integer delta = drained.remove(reviewId);
+            if (delta != null && delta != 0) {
+                batch.put(reviewId, delta);
+            }
+        }
+        inFlight = batch;
+        version.incrementAndGet();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            flushTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+                reviewRepository.addUseful(batch);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void beforeCommit(boolean readOnly) {
+                        version.incrementAndGet();
+                    }
+                });
+            }));
+        } catch (RuntimeException e) {
+            log.error("Не удалось записать рейтинг {} отзывов, повторим при следующей записи", batch.size(), e);
+            if ((version.get() & 1) == 0) {
+                version.incrementAndGet();
+            }
+            batch.forEach(this::add);
+        }
+        inFlight = Map.of();
+        version.incrementAndGet();
+    }
+}
@@ -0,0 +1,35 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Сверяет reviews.useful с таблицей review_likes при запуске и затем периодически. Изменения рейтинга
+ * копятся в ReviewUsefulCounter в памяти и теряются, если приложение упало до их записи.
+ */
+@Slf4j
+@Component
+public class ReviewUsefulReconciler {
+    private final ReviewUsefulCounter usefulCounter;
+
+    @Autowired
+    public ReviewUsefulReconciler(ReviewUsefulCounter usefulCounter) {
+        this.usefulCounter = usefulCounter;
+    }
+
+    @PostConstruct
+    @Scheduled(initialDelayString = "${filmorate.reviews.useful-reconcile-interval-ms:600000}",
+            fixedDelayString = "${filmorate.reviews.useful-reconcile-interval-ms:600000}")
+    public void reconcile() {
+        Map<Integer, Integer> repaired = usefulCounter.reconcile();
+        if (repaired.isEmpty()) {
+            return;
+        }
+        log.warn("Рейтинг {} отзывов расходился с таблицей review_likes и был исправлен", repaired.size());
+    }
+}
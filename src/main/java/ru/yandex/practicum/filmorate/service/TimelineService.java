@@ -0,0 +1,208 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import ru.yandex.practicum.filmorate.api.dto.EventDTO;
+import ru.yandex.practicum.filmorate.api.mapper.EventMapper;
+import ru.yandex.practicum.filmorate.exception.NotFoundIssueException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.repository.EventRepository;
+import ru.yandex.practicum.filmorate.repository.FriendshipRepository;
+import ru.yandex.practicum.filmorate.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Лента активности друзей, от новых событий к старым.
+ * Записанное событие сразу добавляется в ленты тех, кто дружит с его автором (fan-out-on-write),
+ * каждая лента хранит не больше capacity событий. События пользователей, у которых больше fan-out-limit
+ * подписчиков, в чужие ленты не раскладываются: они лежат в ленте самого автора и подмешиваются при чтении.
+ * Ленты хранятся только в памяти и строятся из базы при первом обращении. Размер кэшей лент ограничен
+ * общим числом событий в них (max-events на каждый кэш), а не числом пользователей: лента занимает до capacity событий.
+ */
+@Slf4j
+@Service
+public class TimelineService {
+    private static final Comparator<Event> NEWEST_FIRST = Comparator.comparing(Event::getTimestamp)
+            .thenComparingLong(Event::getId)
+            .reversed();
+
+    private final EventRepository eventRepository;
+    private final FriendshipRepository friendshipRepository;
+    private final UserRepository userRepository;
+    private final int capacity;
+    private final int fanOutLimit;
+
+    private final Cache<Integer, Timeline> timelines;
+    private final Cache<Integer, Timeline> outboxes;
+    private final ConcurrentHashMap<Integer, Boolean> highDegreeAuthors = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TimelineService(EventRepository eventRepository,
+                           FriendshipRepository friendshipRepository,
+                           UserRepository userRepository,
+                           EventWriter eventWriter,
+                           @Value("${filmorate.timeline.capacity:1000}") int capacity,
+                           @Value("${filmorate.timeline.fan-out-limit:1000}") int fanOutLimit,
+                           @Value("${filmorate.timeline.max-events:5000000}") long maxEvents) {
+        this.eventRepository = eventRepository;
+        this.friendshipRepository = friendshipRepository;
+        this.userRepository = userRepository;
+        this.capacity = capacity;
+        this.fanOutLimit = fanOutLimit;
+        this.timelines = Caffeine.newBuilder()
+                .maximumWeight(maxEvents)
+                .weigher(TimelineService::weigh)
+                .build();
+        this.outboxes = Caffeine.newBuilder()
+                .maximumWeight(maxEvents)
+                .weigher(TimelineService::weigh)
+                .build();
+        eventWriter.addListener(this::publish);
+    }
+
+    public List<EventDTO> getFriendsFeed(int userId, int offset, int limit) {
+        if (!userRepository.existsById(userId)) {
+            throw new NotFoundIssueException("Пользователь с ID " + userId + " не найден");
+        }
+
+        int[] friendIds = friendshipRepository.getFriendIds(userId);
+        int size = offset + limit;
+        NavigableSet<Event> page = new TreeSet<>(NEWEST_FIRST);
+        page.addAll(timelines.get(userId, id -> load(Arrays.stream(friendIds)
+                        .filter(friendId -> !isHighDegree(friendId))
+                        .toArray()))
+                .head(size));
+        for (int friendId : friendIds) {
+            if (isHighDegree(friendId)) {
+                page.addAll(outboxes.get(friendId, id -> load(new int[]{id})).head(size));
+            }
+        }
+
+        return page.stream()
+                .skip(offset)
+                .limit(limit)
+                .map(EventMapper::mapToEventDTO)
+                .toList();
+    }
+
+    /**
+     * Пользователь userId добавил или удалил друга friendId: его лента будет построена заново при следующем чтении.
+     */
+    public void friendshipChanged(int userId, int friendId) {
+        timelines.invalidate(userId);
+        checkFanOut(friendId);
+    }
+
+    /**
+     * Убирает события удаленного пользователя из лент тех, кто с ним дружил. friendIds - его друзья,
+     * у которых стало на одного подписчика меньше.
+     */
+    public void removeUser(int userId, int[] followerIds, int[] friendIds) {
+        timelines.invalidate(userId);
+        outboxes.invalidate(userId);
+        highDegreeAuthors.remove(userId);
+        for (int followerId : followerIds) {
+            timelines.invalidate(followerId);
+        }
+        for (int friendId : friendIds) {
+            checkFanOut(friendId);
+        }
+    }
+
+    /**
+     * Если число подписчиков автора пересекло fan-out-limit, его события переходят из лент подписчиков
+     * в подмешивание при чтении или обратно, и уже построенные ленты подписчиков их не содержат.
+     * Такие ленты строятся заново. highDegreeAuthors помнит авторов, которых видели выше предела;
+     * compute по автору не дает параллельным изменениям пропустить пересечение.
+     */
+    private void checkFanOut(int authorId) {
+        highDegreeAuthors.compute(authorId, (id, wasHighDegree) -> {
+            boolean highDegree = friendshipRepository.getFollowerIds(id).length > fanOutLimit;
+            if (highDegree != (wasHighDegree != null)) {
+                log.info("Пользователь {} пересек предел рассылки событий, ленты подписчиков строятся заново", id);
+                for (int followerId : friendshipRepository.getFollowerIds(id)) {
+                    timelines.invalidate(followerId);
+                }
+            }
+            return highDegree ? Boolean.TRUE : null;
+        });
+    }
+
+    private void publish(List<Event> events) {
+        for (Event event : events) {
+            int authorId = event.getUserId();
+            if (isHighDegree(authorId)) {
+                outboxes.asMap().computeIfPresent(authorId, (id, outbox) -> outbox.add(event));
+                continue;
+            }
+            for (int followerId : friendshipRepository.getFollowerIds(authorId)) {
+                timelines.asMap().computeIfPresent(followerId, (id, timeline) -> timeline.add(event));
+            }
+        }
+    }
+
+    private boolean isHighDegree(int userId) {
+        boolean highDegree = friendshipRepository.getFollowerIds(userId).length > fanOutLimit;
+        if (highDegree && !highDegreeAuthors.containsKey(userId)) {
+            highDegreeAuthors.putIfAbsent(userId, Boolean.TRUE);
+        }
+        return highDegree;
+    }
+
+    /**
+     * Вес ленты пересчитывается при каждой записи в нее через computeIfPresent.
+     */
+    private static int weigh(Integer userId, Timeline timeline) {
+        return Math.max(1, timeline.size());
+    }
+
+    private Timeline load(int[] authorIds) {
+        Timeline timeline = new Timeline(capacity);
+        eventRepository.getRecentEventsByUserIds(authorIds, capacity).forEach(timeline::add);
+        return timeline;
+    }
+
+    private static class Timeline {
+        private final int capacity;
+        private final TreeSet<Event> events = new TreeSet<>(NEWEST_FIRST);
+
+        Timeline(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized Timeline add(Event event) {
+            events.add(event);
+            if (events.size() > capacity) {
+                events.pollLast();
+            }
+            return this;
+        }
+
+        synchronized int size() {
+            return events.size();
+        }
+
+        synchronized List<Event> head(int size) {
+            List<Event> head = new ArrayList<>(Math.min(size, events.size()));
+            for (Event event : events) {
+                if (head.size() == size) {
+                    break;
+                }
+                head.add(event);
+            }
+            return head;
+        }
+    }
+}
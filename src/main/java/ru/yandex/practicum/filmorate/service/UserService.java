@@ -12,10 +12,12 @@ import ru.yandex.practicum.filmorate.exception.EntityAlreadyExistsException;
 import ru.yandex.practicum.filmorate.exception.NotFoundIssueException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.repository.FriendshipRepository;
 import ru.yandex.practicum.filmorate.repository.UserRepository;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -23,10 +25,26 @@ import java.util.stream.Collectors;
 public class UserService {
 
     private final UserRepository userRepository;
+    private final PopularityIndex popularityIndex;
+    private final RecommendationEngine recommendationEngine;
+    private final FriendshipRepository friendshipRepository;
+    private final TimelineService timelineService;
+    private final DeletionPurger deletionPurger;
 
     @Autowired
-    public UserService(UserRepository userRepository) {
+    public UserService(UserRepository userRepository,
+                       PopularityIndex popularityIndex,
+                       RecommendationEngine recommendationEngine,
+                       FriendshipRepository friendshipRepository,
+                       TimelineService timelineService,
+                       DeletionPurger deletionPurger
+    ) {
         this.userRepository = userRepository;
+        this.popularityIndex = popularityIndex;
+        this.recommendationEngine = recommendationEngine;
+        this.friendshipRepository = friendshipRepository;
+        this.timelineService = timelineService;
+        this.deletionPurger = deletionPurger;
     }
 
     public UserDTO createUser(CreateUserRequest userRequest) {
@@ -75,6 +93,17 @@ public class UserService {
                 .collect(Collectors.toList());
     }
 
+    public List<UserDTO> getUsersPage(int limit, int afterId) {
+        return userRepository.getUsersPage(limit, afterId)
+                .stream()
+                .map(UserMapper::mapToUserDto)
+                .toList();
+    }
+
+    public void streamUsers(int afterId, Consumer<UserDTO> consumer) {
+        userRepository.streamUsers(afterId, user -> consumer.accept(UserMapper.mapToUserDto(user)));
+    }
+
     public UserDTO getUserById(int id) {
         Optional<User> user = userRepository.getUserById(id);
         if (user.isEmpty()) {
@@ -86,12 +115,16 @@ public class UserService {
     public void deleteUser(int id) {
         log.info("Запрос на удаление пользователя с id = {}", id);
 
-        Optional<User> user = userRepository.getUserById(id);
-        if (user.isEmpty()) {
+        if (!userRepository.existsById(id)) {
             logNotFoundError("Пользователь с id = " + id + " не найден");
         }
 
-        userRepository.deleteUser(id);
+        int[] followerIds = friendshipRepository.getFollowerIds(id);
+        int[] friendIds = friendshipRepository.getFriendIds(id);
+        List<Integer> likedFilmIds = deletionPurger.deleteUser(id);
+        likedFilmIds.forEach(filmId -> popularityIndex.changeLikes(filmId, -1));
+        recommendationEngine.removeUser(id);
+        timelineService.removeUser(id, followerIds, friendIds);
 
         log.info("Пользователь с id = {} успешно удален", id);
     }
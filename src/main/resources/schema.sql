@@ -10,13 +10,24 @@ DROP TABLE IF EXISTS mpa;
 DROP TABLE IF EXISTS genres;
 DROP TABLE IF EXISTS user_friends;
 DROP TABLE IF EXISTS users;
+DROP SEQUENCE IF EXISTS users_id_seq;
+DROP SEQUENCE IF EXISTS films_id_seq;
+DROP SEQUENCE IF EXISTS reviews_id_seq;
+DROP SEQUENCE IF EXISTS events_id_seq;
+
+-- Шаг последовательности - размер блока id, который IdAllocator резервирует одним запросом
+create sequence if not exists users_id_seq start with 1 increment by 100;
+create sequence if not exists films_id_seq start with 1 increment by 100;
+create sequence if not exists reviews_id_seq start with 1 increment by 100;
+create sequence if not exists events_id_seq start with 1 increment by 100;
 
 create table if not exists users (
-    id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id INTEGER DEFAULT NEXT VALUE FOR users_id_seq PRIMARY KEY,
     email varchar(100) UNIQUE NOT NULL,
     login varchar(100) NOT NULL,
     name varchar(100),
-    birthday date
+    birthday date,
+    deleted boolean default false not null
 );
 
 create table if not exists user_friends (
@@ -26,10 +37,12 @@ create table if not exists user_friends (
     is_friend boolean default false,
 
     CONSTRAINT un_user_friends_pair UNIQUE (user_id, friend_id),
-    CONSTRAINT fk_user_friends_user_id FOREIGN KEY (user_id) REFERENCES users(id),
-    CONSTRAINT fk_user_friends_friend_id FOREIGN KEY (friend_id) REFERENCES users(id)
+    CONSTRAINT fk_user_friends_user_id FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    CONSTRAINT fk_user_friends_friend_id FOREIGN KEY (friend_id) REFERENCES users(id) ON DELETE CASCADE
 );
 
+create index if not exists idx_user_friends_friend_id on user_friends (friend_id, user_id);
+
 create table if not exists genres (
     id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     name varchar(100) UNIQUE NOT NULL
@@ -41,34 +54,43 @@ create table if not exists mpa (
 );
 
 create table if not exists films (
-    id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id INTEGER DEFAULT NEXT VALUE FOR films_id_seq PRIMARY KEY,
     name varchar(255) NOT NULL,
     description varchar(1000),
     release_date date,
     duration INT8,
     mpa_id INTEGER,
+    like_count INTEGER DEFAULT 0 NOT NULL,
+    deleted boolean default false not null,
 
     CONSTRAINT fk_film_mpa_id FOREIGN KEY (mpa_id) REFERENCES mpa(id)
 );
 
+create index if not exists idx_films_like_count on films (like_count desc, id);
+create index if not exists idx_films_release_date on films (release_date);
+
 create table if not exists film_genres (
     film_id INTEGER,
     genre_id INTEGER,
 
     CONSTRAINT pk_film_genres PRIMARY KEY (film_id, genre_id),
-    CONSTRAINT fk_film_genres_film_id FOREIGN KEY (film_id) REFERENCES films(id),
+    CONSTRAINT fk_film_genres_film_id FOREIGN KEY (film_id) REFERENCES films(id) ON DELETE CASCADE,
     CONSTRAINT fk_film_genres_genre_id FOREIGN KEY (genre_id) REFERENCES genres(id)
 );
 
+create index if not exists idx_film_genres_genre_id on film_genres (genre_id, film_id);
+
 create table if not exists likes (
     film_id INTEGER,
     user_id INTEGER,
 
     CONSTRAINT pk_likes PRIMARY KEY (film_id, user_id),
-    CONSTRAINT fk_likes_film_id FOREIGN KEY (film_id) REFERENCES films(id),
-    CONSTRAINT fk_likes_user_id FOREIGN KEY (user_id) REFERENCES users(id)
+    CONSTRAINT fk_likes_film_id FOREIGN KEY (film_id) REFERENCES films(id) ON DELETE CASCADE,
+    CONSTRAINT fk_likes_user_id FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
 );
 
+create index if not exists idx_likes_user_id on likes (user_id, film_id);
+
 CREATE TABLE IF NOT EXISTS directors (
     id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
     name VARCHAR(255) NOT NULL UNIQUE
@@ -83,36 +105,46 @@ CREATE TABLE IF NOT EXISTS film_directors (
 );
 
 create table if not exists reviews (
-    review_id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    review_id INTEGER DEFAULT NEXT VALUE FOR reviews_id_seq PRIMARY KEY,
     content varchar(500) not null,
     is_positive boolean not null,
     user_id INTEGER not null,
     film_id INTEGER not null,
     useful INTEGER default 0,
 
-    CONSTRAINT fk_reviews_user_id FOREIGN KEY (user_id) REFERENCES users(id),
-    CONSTRAINT fk_reviews_film_id FOREIGN KEY (film_id) REFERENCES films(id)
+    CONSTRAINT fk_reviews_user_id FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    CONSTRAINT fk_reviews_film_id FOREIGN KEY (film_id) REFERENCES films(id) ON DELETE CASCADE
 );
 
+create index if not exists idx_reviews_user_id on reviews (user_id);
+
+create index if not exists idx_reviews_useful on reviews (useful desc, review_id);
+create index if not exists idx_reviews_film_useful on reviews (film_id, useful desc, review_id);
+
 create table if not exists review_likes (
     review_id INTEGER not null,
     user_id INTEGER not null,
     is_positive boolean not null,
 
     CONSTRAINT pk_review_likes PRIMARY KEY (review_id, user_id),
-    CONSTRAINT fk_review_likes_review_id FOREIGN KEY (review_id) REFERENCES reviews(review_id),
-    CONSTRAINT fk_review_likes_user_id FOREIGN KEY (user_id) REFERENCES users(id)
+    CONSTRAINT fk_review_likes_review_id FOREIGN KEY (review_id) REFERENCES reviews(review_id) ON DELETE CASCADE,
+    CONSTRAINT fk_review_likes_user_id FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
 );
 
+create index if not exists idx_review_likes_user_id on review_likes (user_id);
+
 create table if not exists events (
-    id INT8 GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    id INT8 DEFAULT NEXT VALUE FOR events_id_seq PRIMARY KEY,
     timestamp INT8 NOT NULL,
     type varchar(50) NOT NULL,
     operation varchar(50) NOT NULL,
     user_id INTEGER NOT NULL,
     entity_id INTEGER NOT NULL,
 
-    CONSTRAINT fk_events_user_id FOREIGN KEY (user_id) REFERENCES users(id),
+    CONSTRAINT fk_events_user_id FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
     CONSTRAINT chk_events_type CHECK (type IN ('LIKE', 'REVIEW', 'FRIEND')),
     CONSTRAINT chk_events_operation CHECK (operation IN ('ADD', 'UPDATE', 'REMOVE'))
-);
\ No newline at end of file
+);
+
+create index if not exists idx_events_user_id on events (user_id, timestamp, id);
+create index if not exists idx_events_entity_id on events (entity_id);
\ No newline at end of file
@@ -0,0 +1,51 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessException;
+import ru.yandex.practicum.filmorate.api.dto.CreateUserRequest;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
+import ru.yandex.practicum.filmorate.service.UserService;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+class EventRepositoryTests {
+    @Autowired
+    private EventRepository eventRepository;
+    @Autowired
+    private UserService userService;
+
+    @Test
+    void failedBatchLeavesNoEvents() {
+        CreateUserRequest user = new CreateUserRequest();
+        user.setEmail("batchtx@mail.ru");
+        user.setLogin("batchtx");
+        user.setName("batchtx");
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        int userId = userService.createUser(user).getId();
+
+        assertThrows(DataAccessException.class,
+                () -> eventRepository.saveEvents(List.of(event(userId), event(Integer.MAX_VALUE))));
+
+        assertEquals(List.of(), eventRepository.getEventsByUserId(userId));
+    }
+
+    private static Event event(int userId) {
+        return Event.builder()
+                .timestamp(Instant.now())
+                .type(EventType.LIKE)
+                .operation(EventOperation.ADD)
+                .userId(userId)
+                .entityId(1)
+                .build();
+    }
+}
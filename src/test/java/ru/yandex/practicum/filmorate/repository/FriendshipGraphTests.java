@@ -0,0 +1,86 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class FriendshipGraphTests {
+    private FriendshipGraph graph;
+
+    @BeforeEach
+    void setUp() {
+        graph = new FriendshipGraph();
+        graph.load(Map.of(
+                1, new int[]{3, 2},
+                2, new int[]{3},
+                4, new int[]{1, 3}));
+    }
+
+    @Test
+    void loadSortsFriendsAndBuildsFollowers() {
+        assertArrayEquals(new int[]{2, 3}, graph.getFriendIds(1));
+        assertArrayEquals(new int[]{3}, graph.getFriendIds(2));
+        assertArrayEquals(new int[]{}, graph.getFriendIds(3));
+        assertArrayEquals(new int[]{1, 2, 4}, graph.getFollowerIds(3));
+        assertArrayEquals(new int[]{4}, graph.getFollowerIds(1));
+        assertArrayEquals(new int[]{}, graph.getFollowerIds(4));
+    }
+
+    @Test
+    void addFriendKeepsOrderAndCopiesArrays() {
+        int[] before = graph.getFriendIds(1);
+
+        graph.addFriend(1, 0);
+        graph.addFriend(1, 5);
+        graph.addFriend(1, 4);
+
+        assertArrayEquals(new int[]{2, 3}, before);
+        assertArrayEquals(new int[]{0, 2, 3, 4, 5}, graph.getFriendIds(1));
+        assertArrayEquals(new int[]{1}, graph.getFollowerIds(4));
+        assertArrayEquals(new int[]{1}, graph.getFollowerIds(5));
+    }
+
+    @Test
+    void repeatedAddAndMissingRemoveChangeNothing() {
+        int[] friends = graph.getFriendIds(1);
+        graph.addFriend(1, 2);
+        assertSame(friends, graph.getFriendIds(1));
+
+        graph.removeFriend(1, 4);
+        assertSame(friends, graph.getFriendIds(1));
+        assertArrayEquals(new int[]{4}, graph.getFollowerIds(1));
+    }
+
+    @Test
+    void removeFriendUpdatesBothDirections() {
+        int[] followers = graph.getFollowerIds(3);
+
+        graph.removeFriend(2, 3);
+
+        assertArrayEquals(new int[]{1, 2, 4}, followers);
+        assertArrayEquals(new int[]{}, graph.getFriendIds(2));
+        assertArrayEquals(new int[]{1, 4}, graph.getFollowerIds(3));
+    }
+
+    @Test
+    void removeUserDropsAllEdges() {
+        graph.removeUser(1);
+
+        assertArrayEquals(new int[]{}, graph.getFriendIds(1));
+        assertArrayEquals(new int[]{}, graph.getFollowerIds(1));
+        assertArrayEquals(new int[]{3}, graph.getFriendIds(4));
+        assertArrayEquals(new int[]{}, graph.getFollowerIds(2));
+        assertArrayEquals(new int[]{2, 4}, graph.getFollowerIds(3));
+    }
+
+    @Test
+    void commonFriendsIntersectSortedArrays() {
+        assertArrayEquals(new int[]{3}, graph.getCommonFriendIds(1, 4));
+        assertArrayEquals(new int[]{3}, graph.getCommonFriendIds(1, 2));
+        assertArrayEquals(new int[]{}, graph.getCommonFriendIds(1, 3));
+    }
+}
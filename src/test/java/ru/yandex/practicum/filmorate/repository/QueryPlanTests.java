@@ -0,0 +1,195 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import ru.yandex.practicum.filmorate.api.dto.CreateFilmRequest;
+import ru.yandex.practicum.filmorate.api.dto.CreateReviewRequest;
+import ru.yandex.practicum.filmorate.api.dto.CreateUserRequest;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.service.DeletionPurger;
+import ru.yandex.practicum.filmorate.service.DirectorService;
+import ru.yandex.practicum.filmorate.service.EventService;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.FriendshipService;
+import ru.yandex.practicum.filmorate.service.ReviewService;
+import ru.yandex.practicum.filmorate.service.UserService;
+
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Выполняет основные пути чтения и удаления и проверяет через EXPLAIN, что ни один выполненный
+ * ими запрос с параметрами не читает таблицу целиком. Запросы без параметров (загрузка таблиц в память
+ * при старте, справочники) не проверяются.
+ */
+@SpringBootTest
+class QueryPlanTests {
+    /**
+     * H2 помечает обращение к таблице комментарием с именем индекса и условием поиска.
+     * Комментарий без условия означает полный проход по таблице или по индексу.
+     */
+    private static final Pattern FULL_SCAN = Pattern.compile("/\\* [\\w.]+ \\*/");
+    private static final Pattern WHERE = Pattern.compile("(?s)\nWHERE (.*?)\n(ORDER BY|FETCH)");
+    private static final Pattern AND = Pattern.compile("\\s+AND\\s+");
+    /**
+     * Условия, которые лишь пропускают часть строк при чтении индекса: помеченные удаленными строки,
+     * исключенный список id (отзывы с незаписанными голосами) и соединение по первичному ключу.
+     */
+    private static final List<Pattern> SKIPPING = List.of(
+            Pattern.compile("\"?\\w+\"?\\.\"?DELETED\"? = FALSE"),
+            Pattern.compile("\"?\\w+\"?\\.\"?\\w+\"? <> ALL\\?\\d*"),
+            Pattern.compile("\"?\\w+\"?\\.\"?ID\"? = \"?\\w+\"?\\.\"?\\w+\"?"));
+
+    @Autowired
+    private FilmService filmService;
+    @Autowired
+    private FilmRepository filmRepository;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private FriendshipService friendshipService;
+    @Autowired
+    private ReviewService reviewService;
+    @Autowired
+    private EventService eventService;
+    @Autowired
+    private DirectorService directorService;
+    @Autowired
+    private DeletionPurger deletionPurger;
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Test
+    void hotPathQueriesUseIndexes() {
+        int[] users = new int[4];
+        for (int i = 0; i < users.length; i++) {
+            CreateUserRequest user = new CreateUserRequest();
+            user.setEmail("explain" + i + "@mail.ru");
+            user.setLogin("explain" + i);
+            user.setName("explain" + i);
+            user.setBirthday(LocalDate.of(1990, 1, 1));
+            users[i] = userService.createUser(user).getId();
+        }
+        int directorId = directorService.createDirector(Director.builder().name("explain").build()).getId();
+        int genreId = jdbc.queryForObject("select min(id) from genres", Integer.class);
+        int[] films = new int[3];
+        for (int i = 0; i < films.length; i++) {
+            CreateFilmRequest film = new CreateFilmRequest();
+            film.setName("explain" + i);
+            film.setDescription("explain");
+            film.setReleaseDate(LocalDate.of(2000 + i, 1, 1));
+            film.setDuration(Duration.ofMinutes(100));
+            film.setMpa(Mpa.builder().id(1).build());
+            Genre genre = new Genre();
+            genre.setId(genreId);
+            film.getGenres().add(genre);
+            film.getDirectors().add(Director.builder().id(directorId).build());
+            films[i] = filmService.addFilm(film).getId();
+        }
+        filmService.addLike(films[0], users[0]);
+        filmService.addLike(films[1], users[0]);
+        filmService.addLike(films[1], users[1]);
+        filmService.addLike(films[0], users[3]);
+        friendshipService.addFriend(users[0], users[1]);
+        friendshipService.addFriend(users[2], users[1]);
+        friendshipService.addFriend(users[3], users[0]);
+        int reviewId = reviewService.addReview(new CreateReviewRequest(films[1], users[1], "explain", true))
+                .getReviewId();
+        reviewService.addLikeReview(reviewId, users[3]);
+        reviewService.addReview(new CreateReviewRequest(films[0], users[3], "explain", false));
+
+        jdbc.execute("SET QUERY_STATISTICS TRUE");
+        List<String> statements;
+        try {
+            filmService.getCommonFilms(users[0], users[1]);
+            filmService.getMostPopular(10, null, null);
+            filmRepository.getMostPopular(10, null, null);
+            filmRepository.getMostPopular(10, genreId, null);
+            filmRepository.getMostPopular(10, null, 2001);
+            filmRepository.getMostPopular(10, genreId, 2001);
+            filmService.getDirectorFilms(directorId, "year");
+            filmService.getDirectorFilms(directorId, "likes");
+            filmService.getRecommendations(users[1]);
+            filmService.removeLike(films[1], users[1]);
+            eventService.getUserFeed(users[0]);
+            eventService.getUserFeed(users[0], 10, null, null);
+            reviewService.getReviews(films[1], 10, null);
+            reviewService.getReviews(0, 10, null);
+            reviewService.getReviews(0, 10, reviewId);
+            friendshipService.getUserFriends(users[0]);
+            friendshipService.getCommonFriends(users[0], users[2]);
+            userService.deleteUser(users[3]);
+            filmService.deleteFilm(films[1]);
+            deletionPurger.purge();
+
+            statements = jdbc.queryForList("select sql_statement from information_schema.query_statistics",
+                    String.class);
+        } finally {
+            jdbc.execute("SET QUERY_STATISTICS FALSE");
+        }
+
+        List<String> checked = statements.stream()
+                .filter(sql -> sql.toLowerCase(Locale.ROOT).matches("(?s)\\s*(select|update|delete)\\s.*"))
+                .filter(sql -> sql.contains("?"))
+                .filter(sql -> !sql.toLowerCase(Locale.ROOT).contains("information_schema"))
+                .toList();
+        assertFalse(checked.isEmpty());
+
+        List<String> tableScans = new ArrayList<>();
+        for (String sql : checked) {
+            String plan = explain(sql);
+            if (FULL_SCAN.matcher(plan).find() && !isTopN(plan)) {
+                tableScans.add(plan);
+            }
+        }
+        assertEquals(List.of(), tableScans);
+    }
+
+    /**
+     * Чтение по индексу в порядке сортировки с limit останавливается после первых подходящих строк.
+     * Полным проходом при этом может быть только первая таблица, а условия запроса - только такие,
+     * что пропускают немного строк (SKIPPING): они лишь немного удлиняют проход.
+     */
+    private static boolean isTopN(String plan) {
+        if (!plan.contains("/* index sorted */") || !plan.contains("FETCH FIRST")) {
+            return false;
+        }
+        Matcher scan = FULL_SCAN.matcher(plan);
+        if (!scan.find() || scan.start() != plan.indexOf("/*") || scan.find()) {
+            return false;
+        }
+        Matcher where = WHERE.matcher(plan);
+        return !where.find() || AND.splitAsStream(where.group(1).replaceAll("[()]", ""))
+                .allMatch(condition -> SKIPPING.stream()
+                        .anyMatch(skipping -> skipping.matcher(condition.trim()).matches()));
+    }
+
+    /**
+     * Параметры запроса на план не влияют, но без них H2 не выполнит EXPLAIN.
+     */
+    private String explain(String sql) {
+        return jdbc.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("explain " + sql);
+            int parameters = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                statement.setNull(i, Types.NULL);
+            }
+            return statement;
+        }, (ResultSetExtractor<String>) rs -> rs.next() ? rs.getString(1) : "");
+    }
+}
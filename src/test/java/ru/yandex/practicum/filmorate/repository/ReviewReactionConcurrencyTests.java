@@ -0,0 +1,134 @@
+package ru.yandex.practicum.filmorate.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Review;
+import ru.yandex.practicum.filmorate.service.ReviewService;
+import ru.yandex.practicum.filmorate.service.ReviewUsefulCounter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+class ReviewReactionConcurrencyTests {
+    private static final int THREADS = 64;
+    private static final int OPERATIONS = 100;
+
+    @Autowired
+    private ReviewService reviewService;
+    @Autowired
+    private ReviewRepository reviewRepository;
+    @Autowired
+    private ReviewUsefulCounter usefulCounter;
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Test
+    void usefulStaysConsistentUnderConcurrentReactions() throws Exception {
+        checkConcurrentReactions("stress", false);
+    }
+
+    @Test
+    void usefulStaysConsistentWhileFlushing() throws Exception {
+        checkConcurrentReactions("flush", true);
+    }
+
+    private void checkConcurrentReactions(String prefix, boolean flushing) throws Exception {
+        List<Integer> userIds = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            jdbc.update("insert into users (email, login, name, birthday) values (?, ?, ?, '1990-01-01')",
+                    prefix + i + "@mail.ru", prefix + i, prefix + i);
+            userIds.add(jdbc.queryForObject("select id from users where login = ?", Integer.class, prefix + i));
+        }
+        jdbc.update("insert into films (name, description, release_date, duration, mpa_id) "
+                    + "values ('stress', 'stress', '2000-01-01', 100, 1)");
+        int filmId = jdbc.queryForObject("select max(id) from films", Integer.class);
+        int reviewId = reviewRepository.addReview(Review.builder()
+                .filmId(filmId)
+                .userId(userIds.get(0))
+                .content("stress")
+                .isPositive(true)
+                .build()).getReviewId();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean reacting = new AtomicBoolean(true);
+        List<Future<Integer>> finalScores = new ArrayList<>();
+        try {
+            for (int userId : userIds) {
+                finalScores.add(executor.submit(() -> react(reviewId, userId, start)));
+            }
+            Future<?> flusher = executor.submit(() -> {
+                while (flushing && reacting.get()) {
+                    usefulCounter.flush();
+                    reviewService.getReview(reviewId);
+                    reviewService.getReviews(0, 10, null);
+                }
+            });
+            start.countDown();
+
+            int expected = 0;
+            for (Future<Integer> score : finalScores) {
+                expected += score.get();
+            }
+            reacting.set(false);
+            flusher.get();
+
+            Integer reactionSum = jdbc.queryForObject(
+                    "select coalesce(sum(case when is_positive then 1 else -1 end), 0) "
+                    + "from review_likes where review_id = ?", Integer.class, reviewId);
+            assertEquals(expected, reactionSum);
+            assertEquals(expected, reviewService.getReview(reviewId).getUseful());
+
+            usefulCounter.flush();
+            assertEquals(expected, reviewRepository.getReviewById(reviewId).orElseThrow().getUseful());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Каждый поток работает от имени своего пользователя, поэтому итоговая реакция пользователя известна заранее.
+     */
+    private int react(int reviewId, int userId, CountDownLatch start) throws InterruptedException {
+        Random random = new Random(userId);
+        int score = 0;
+        start.await();
+        for (int i = 0; i < OPERATIONS; i++) {
+            try {
+                switch (random.nextInt(4)) {
+                    case 0 -> {
+                        reviewService.addLikeReview(reviewId, userId);
+                        score = 1;
+                    }
+                    case 1 -> {
+                        reviewService.addDislikeReview(reviewId, userId);
+                        score = -1;
+                    }
+                    case 2 -> {
+                        reviewService.delLikeReview(reviewId, userId);
+                        score = score == 1 ? 0 : score;
+                    }
+                    default -> {
+                        reviewService.delDislikeReview(reviewId, userId);
+                        score = score == -1 ? 0 : score;
+                    }
+                }
+            } catch (ValidationException e) {
+                // повторная реакция того же знака ничего не меняет
+            }
+        }
+        return score;
+    }
+}
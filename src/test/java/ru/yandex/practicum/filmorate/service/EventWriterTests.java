@@ -0,0 +1,129 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
+import ru.yandex.practicum.filmorate.repository.EventRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class EventWriterTests {
+    private static final Duration LIMIT = Duration.ofSeconds(5);
+
+    private final EventRepository repository = mock(EventRepository.class);
+    private EventWriter writer;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (writer != null) {
+            writer.stop();
+        }
+    }
+
+    @Test
+    void groupCommitReturnsAfterBatchIsWritten() {
+        List<Event> written = new CopyOnWriteArrayList<>();
+        writer = start(5_000);
+        writer.addListener(written::addAll);
+
+        assertTimeoutPreemptively(LIMIT, () -> writer.write(event(1)));
+
+        verify(repository).saveEvents(anyList());
+        assertEquals(1, written.size());
+        assertEquals(1, written.get(0).getUserId());
+    }
+
+    @Test
+    void failedEventFailsOnlyItsRequest() {
+        doThrow(new IllegalStateException("batch")).when(repository).saveEvents(anyList());
+        doThrow(new IllegalArgumentException("single"))
+                .when(repository).saveEvent(argThat(event -> event != null && event.getUserId() == 2));
+        writer = start(5_000);
+
+        assertTimeoutPreemptively(LIMIT, () -> writer.write(event(1)));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> assertTimeoutPreemptively(LIMIT, () -> writer.write(event(2))));
+        assertEquals("single", e.getMessage());
+    }
+
+    @Test
+    void writeAfterStopIsRejected() throws InterruptedException {
+        writer = start(5_000);
+        writer.stop();
+
+        assertThrows(IllegalStateException.class, () -> writer.write(event(1)));
+    }
+
+    @Test
+    void writerErrorFailsWaitingAndLaterRequests() {
+        doThrow(new AssertionError("writer died")).when(repository).saveEvents(anyList());
+        writer = start(5_000);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> assertTimeoutPreemptively(LIMIT, () -> writer.write(event(1))));
+        assertEquals(AssertionError.class, e.getCause().getClass());
+        assertTimeoutPreemptively(LIMIT, () -> {
+            while (true) {
+                try {
+                    writer.write(event(2));
+                } catch (IllegalStateException stopped) {
+                    if ("Запись событий остановлена".equals(stopped.getMessage())) {
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    @Test
+    void slowWriteTimesOut() {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(repository).saveEvents(anyList());
+        writer = start(100);
+        try {
+            assertThrows(IllegalStateException.class,
+                    () -> assertTimeoutPreemptively(LIMIT, () -> writer.write(event(1))));
+        } finally {
+            release.countDown();
+        }
+        verify(repository).saveEvents(any());
+    }
+
+    private EventWriter start(long writeTimeoutMs) {
+        EventWriter eventWriter = new EventWriter(repository, new SimpleMeterRegistry(), "group-commit",
+                100, 10, 1, writeTimeoutMs);
+        eventWriter.start();
+        return eventWriter;
+    }
+
+    private static Event event(int userId) {
+        return Event.builder()
+                .userId(userId)
+                .entityId(1)
+                .type(EventType.LIKE)
+                .operation(EventOperation.ADD)
+                .timestamp(Instant.now())
+                .build();
+    }
+}
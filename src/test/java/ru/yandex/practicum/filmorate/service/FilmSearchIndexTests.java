@@ -0,0 +1,108 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FilmSearchIndexTests {
+    private static final Set<String> TITLE = Set.of("title");
+    private static final Set<String> DIRECTOR = Set.of("director");
+    private static final Set<String> BOTH = Set.of("title", "director");
+
+    private FilmSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new FilmSearchIndex(null, null, true);
+        index.putDirector(director(1, "Christopher Nolan"));
+        index.putDirector(director(2, "Denis Villeneuve"));
+        index.putFilm(film(1, "Inception", 1));
+        index.putFilm(film(2, "Interstellar", 1));
+        index.putFilm(film(3, "Dune", 2));
+        index.putFilm(film(4, "Arrival", 2));
+        index.putFilm(film(5, "Inside Out"));
+    }
+
+    @Test
+    void findsSubstringsNewestFirst() {
+        assertEquals(List.of(2), index.search("TERST", TITLE));
+        assertEquals(List.of(2, 1), index.search("nolan", DIRECTOR));
+        assertEquals(List.of(4, 3), index.search("villeneuve", BOTH));
+        assertEquals(List.of(5, 2, 1), index.search("in", TITLE));
+        assertEquals(List.of(4, 3), index.search("ve", BOTH));
+        assertEquals(List.of(5, 4, 3, 2, 1), index.search("", BOTH));
+    }
+
+    @Test
+    void trigramsOfQueryMustFormSubstring() {
+        index.putFilm(film(6, "abcxbcd"));
+        index.putFilm(film(7, "zabcdz"));
+
+        assertEquals(List.of(7), index.search("abcd", TITLE));
+    }
+
+    @Test
+    void fuzzySearchOrdersBySimilarityThenNewest() {
+        index.putFilm(film(6, "Interstate"));
+
+        assertEquals(List.of(2, 6), index.search("interstelar", TITLE));
+        assertEquals(List.of(2, 1), index.search("nolam", DIRECTOR));
+        assertEquals(List.of(), index.search("nolam", TITLE));
+        assertEquals(List.of(), index.search("xyzzy", BOTH));
+    }
+
+    @Test
+    void updatedAndRemovedFilmsLeaveOldEntries() {
+        index.putFilm(film(1, "Tenet", 2));
+        index.removeFilm(4);
+
+        assertEquals(List.of(), index.search("incep", TITLE));
+        assertEquals(List.of(1), index.search("tenet", TITLE));
+        assertEquals(List.of(2), index.search("nolan", DIRECTOR));
+        assertEquals(List.of(3, 1), index.search("villeneuve", DIRECTOR));
+        assertEquals(List.of(), index.search("arrival", BOTH));
+    }
+
+    @Test
+    void renamedDirectorIsFoundByNewNameOnly() {
+        index.putDirector(director(1, "Greta Gerwig"));
+
+        assertEquals(List.of(), index.search("nolan", DIRECTOR));
+        assertEquals(List.of(2, 1), index.search("gerwig", DIRECTOR));
+    }
+
+    @Test
+    void deletedDirectorLosesFilms() {
+        index.removeDirector(2);
+
+        assertEquals(List.of(), index.search("villeneuve", DIRECTOR));
+        assertEquals(List.of(3), index.search("dune", BOTH));
+
+        index.putDirector(director(2, "Denis Villeneuve"));
+        assertEquals(List.of(), index.search("villeneuve", DIRECTOR));
+
+        index.putFilm(film(3, "Dune", 2));
+        assertEquals(List.of(3), index.search("villeneuve", DIRECTOR));
+    }
+
+    private static Director director(int id, String name) {
+        return Director.builder().id(id).name(name).build();
+    }
+
+    private static Film film(int id, String name, int... directorIds) {
+        Film film = Film.builder()
+                .id(id)
+                .name(name)
+                .build();
+        for (int directorId : directorIds) {
+            film.getDirectors().add(Director.builder().id(directorId).build());
+        }
+        return film;
+    }
+}
@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.yandex.practicum.filmorate.api.dto.CreateFilmRequest;
+import ru.yandex.practicum.filmorate.api.dto.UpdateFilmRequest;
+import ru.yandex.practicum.filmorate.model.Director;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.repository.FilmRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Индекс в памяти должен находить то же, что поиск через like '%query%', и в том же порядке.
+ * Если точных совпадений нет, индекс ищет с опечатками, и сравнивать не с чем.
+ * Строка "qz" из названий и имен этого теста не встречается в данных других тестов.
+ */
+@SpringBootTest
+class FilmSearchSqlComparisonTests {
+    private static final List<String> QUERIES = List.of("qz", "QZV", "zv a", "qzwov", "alpha", "v", "ov");
+    private static final List<Set<String>> FIELDS = List.of(
+            Set.of("title"), Set.of("director"), Set.of("title", "director"));
+
+    @Autowired
+    private FilmService filmService;
+    @Autowired
+    private DirectorService directorService;
+    @Autowired
+    private FilmSearchIndex searchIndex;
+    @Autowired
+    private FilmRepository filmRepository;
+
+    @Test
+    void indexMatchesLikeSearch() {
+        assertTrue(searchIndex.isEnabled());
+        int nolan = directorService.createDirector(Director.builder().name("Qzv Nolan").build()).getId();
+        int ivanov = directorService.createDirector(Director.builder().name("Ivan Qzwov").build()).getId();
+        int first = addFilm("Qzv Alpha", nolan);
+        addFilm("Alpha Qzvx", ivanov);
+        addFilm("Beta qzw");
+        int last = addFilm("Gamma", nolan, ivanov);
+        assertSameResults();
+
+        UpdateFilmRequest update = new UpdateFilmRequest();
+        update.setId(first);
+        update.setName("Delta qzq");
+        update.setReleaseDate(LocalDate.of(2000, 1, 1));
+        update.setDuration(Duration.ofMinutes(100));
+        update.setMpa(Mpa.builder().id(1).build());
+        update.getDirectors().add(Director.builder().id(ivanov).build());
+        filmService.updateFilm(update);
+        assertSameResults();
+
+        directorService.updateDirector(Director.builder().id(nolan).name("Qzv Villeneuve").build());
+        assertSameResults();
+
+        directorService.deleteDirector(ivanov);
+        filmService.deleteFilm(last);
+        assertSameResults();
+    }
+
+    private void assertSameResults() {
+        for (String query : QUERIES) {
+            for (Set<String> fields : FIELDS) {
+                List<Integer> expected = filmRepository.searchFilms(query, fields).stream()
+                        .map(Film::getId)
+                        .toList();
+                if (!expected.isEmpty()) {
+                    assertEquals(expected, searchIndex.search(query, fields), query + " " + fields);
+                }
+            }
+        }
+    }
+
+    private int addFilm(String name, int... directorIds) {
+        CreateFilmRequest film = new CreateFilmRequest();
+        film.setName(name);
+        film.setDescription(name);
+        film.setReleaseDate(LocalDate.of(2000, 1, 1));
+        film.setDuration(Duration.ofMinutes(100));
+        film.setMpa(Mpa.builder().id(1).build());
+        for (int directorId : directorIds) {
+            film.getDirectors().add(Director.builder().id(directorId).build());
+        }
+        return filmService.addFilm(film).getId();
+    }
+}
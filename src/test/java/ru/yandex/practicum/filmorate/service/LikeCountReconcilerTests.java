@@ -0,0 +1,133 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.api.dto.CreateFilmRequest;
+import ru.yandex.practicum.filmorate.api.dto.CreateUserRequest;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.repository.FilmRepository;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+class LikeCountReconcilerTests {
+    private static final int YEAR = 1901;
+    private static final int DELETED_YEAR = 1902;
+    private static final int CONCURRENT_YEAR = 1903;
+
+    @Autowired
+    private FilmService filmService;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private LikeCountReconciler reconciler;
+    @Autowired
+    private PopularityIndex popularityIndex;
+    @Autowired
+    private DeletionPurger deletionPurger;
+    @Autowired
+    private FilmRepository filmRepository;
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Test
+    void reconcileRepairsCountersAndPopularityIndex() {
+        int liked = addFilm("reconcile liked");
+        int unnoticed = addFilm("reconcile unnoticed");
+        int[] users = new int[3];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = addUser("reconcile" + i);
+        }
+        filmService.addLike(liked, users[0]);
+        assertEquals(List.of(liked, unnoticed), popularityIndex.getMostPopularIds(10, null, YEAR));
+
+        // лайки, записанные в обход счетчиков, не видны ни в like_count, ни в индексе
+        for (int userId : users) {
+            jdbc.update("insert into likes (film_id, user_id) values (?, ?)", unnoticed, userId);
+        }
+        assertEquals(List.of(liked, unnoticed), popularityIndex.getMostPopularIds(10, null, YEAR));
+
+        reconciler.reconcile();
+
+        assertEquals(3, jdbc.queryForObject("select like_count from films where id = ?", Integer.class, unnoticed));
+        assertEquals(List.of(unnoticed, liked), popularityIndex.getMostPopularIds(10, null, YEAR));
+    }
+
+    @Test
+    void deletedUserLikesLeaveCountersAtOnce() {
+        int film = addFilm("reconcile deleted", DELETED_YEAR);
+        int other = addFilm("reconcile other", DELETED_YEAR);
+        int deleted = addUser("reconcileDeleted");
+        int kept = addUser("reconcileKept");
+        int another = addUser("reconcileAnother");
+        filmService.addLike(film, deleted);
+        filmService.addLike(film, kept);
+        filmService.addLike(other, kept);
+        filmService.addLike(other, another);
+        assertEquals(List.of(film, other), popularityIndex.getMostPopularIds(10, null, DELETED_YEAR));
+
+        userService.deleteUser(deleted);
+
+        assertEquals(1, likeCount(film));
+        assertEquals(List.of(other, film), popularityIndex.getMostPopularIds(10, null, DELETED_YEAR));
+        reconciler.reconcile();
+        deletionPurger.purge();
+        assertEquals(1, likeCount(film));
+        assertEquals(List.of(other, film), popularityIndex.getMostPopularIds(10, null, DELETED_YEAR));
+    }
+
+    @Test
+    void reconcileKeepsLikesAddedMeanwhile() {
+        int film = addFilm("reconcile concurrent", CONCURRENT_YEAR);
+        int reference = addFilm("reconcile reference", CONCURRENT_YEAR);
+        int[] users = new int[5];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = addUser("reconcileConcurrent" + i);
+            filmService.addLike(reference, users[i]);
+        }
+        for (int i = 0; i < 3; i++) {
+            jdbc.update("insert into likes (film_id, user_id) values (?, ?)", film, users[i]);
+        }
+
+        // лайк уже записан в базу, но до индекса его +1 дойдет только после сверки
+        filmRepository.addLike(film, users[3]);
+        reconciler.reconcile();
+        popularityIndex.changeLikes(film, 1);
+
+        assertEquals(4, likeCount(film));
+        assertEquals(List.of(reference, film), popularityIndex.getMostPopularIds(10, null, CONCURRENT_YEAR));
+    }
+
+    private int likeCount(int filmId) {
+        return jdbc.queryForObject("select like_count from films where id = ?", Integer.class, filmId);
+    }
+
+    private int addFilm(String name) {
+        return addFilm(name, YEAR);
+    }
+
+    private int addFilm(String name, int year) {
+        CreateFilmRequest film = new CreateFilmRequest();
+        film.setName(name);
+        film.setDescription(name);
+        film.setReleaseDate(LocalDate.of(year, 1, 1));
+        film.setDuration(Duration.ofMinutes(100));
+        film.setMpa(Mpa.builder().id(1).build());
+        return filmService.addFilm(film).getId();
+    }
+
+    private int addUser(String login) {
+        CreateUserRequest user = new CreateUserRequest();
+        user.setEmail(login + "@mail.ru");
+        user.setLogin(login);
+        user.setName(login);
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        return userService.createUser(user).getId();
+    }
+}
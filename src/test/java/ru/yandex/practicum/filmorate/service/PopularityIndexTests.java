@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PopularityIndexTests {
+    private static final int COMEDY = 1;
+    private static final int DRAMA = 2;
+
+    private PopularityIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new PopularityIndex(null, true);
+        index.putFilm(film(1, 2000, 0, COMEDY));
+        index.putFilm(film(2, 2000, 3, DRAMA));
+        index.putFilm(film(3, 2001, 3, COMEDY, DRAMA));
+        index.putFilm(film(4, 2001, 1));
+    }
+
+    @Test
+    void ordersByLikesThenById() {
+        assertEquals(List.of(2, 3, 4, 1), index.getMostPopularIds(10, null, null));
+        assertEquals(List.of(2, 3), index.getMostPopularIds(2, null, null));
+    }
+
+    @Test
+    void changeLikesMovesFilm() {
+        index.changeLikes(1, 5);
+        assertEquals(List.of(1, 2, 3, 4), index.getMostPopularIds(10, null, null));
+
+        index.changeLikes(2, -1);
+        assertEquals(List.of(1, 3, 2, 4), index.getMostPopularIds(10, null, null));
+
+        index.changeLikes(4, -5);
+        assertEquals(List.of(1, 3, 2, 4), index.getMostPopularIds(10, null, null));
+        index.changeLikes(4, 1);
+        assertEquals(List.of(1, 3, 2, 4), index.getMostPopularIds(10, null, null));
+    }
+
+    @Test
+    void filtersByGenreAndYear() {
+        index.changeLikes(1, 10);
+
+        assertEquals(List.of(1, 3), index.getMostPopularIds(10, COMEDY, null));
+        assertEquals(List.of(2, 3), index.getMostPopularIds(10, DRAMA, null));
+        assertEquals(List.of(1, 2), index.getMostPopularIds(10, null, 2000));
+        assertEquals(List.of(3, 4), index.getMostPopularIds(10, null, 2001));
+        assertEquals(List.of(3), index.getMostPopularIds(10, DRAMA, 2001));
+        assertEquals(List.of(), index.getMostPopularIds(10, COMEDY, 1999));
+        assertEquals(List.of(), index.getMostPopularIds(10, 99, null));
+    }
+
+    @Test
+    void updateKeepsLikesAndMovesBetweenBuckets() {
+        index.putFilm(film(3, 2000, 0, COMEDY));
+
+        assertEquals(List.of(2, 3, 1), index.getMostPopularIds(10, null, 2000));
+        assertEquals(List.of(4), index.getMostPopularIds(10, null, 2001));
+        assertEquals(List.of(), index.getMostPopularIds(10, DRAMA, 2001));
+        assertEquals(List.of(3, 1), index.getMostPopularIds(10, COMEDY, null));
+    }
+
+    @Test
+    void removedFilmLeavesAllBuckets() {
+        index.removeFilm(3);
+        index.changeLikes(3, 10);
+
+        assertEquals(List.of(2, 4, 1), index.getMostPopularIds(10, null, null));
+        assertEquals(List.of(1), index.getMostPopularIds(10, COMEDY, null));
+        assertEquals(List.of(4), index.getMostPopularIds(10, null, 2001));
+    }
+
+    private static Film film(int id, int year, int likes, int... genreIds) {
+        Film film = Film.builder()
+                .id(id)
+                .name("film" + id)
+                .releaseDate(LocalDate.of(year, 6, 1))
+                .likesCount(likes)
+                .build();
+        for (int genreId : genreIds) {
+            Genre genre = new Genre();
+            genre.setId(genreId);
+            film.getGenres().add(genre);
+        }
+        return film;
+    }
+}
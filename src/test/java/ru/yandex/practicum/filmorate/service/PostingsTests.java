@@ -0,0 +1,34 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PostingsTests {
+    @Test
+    void postingsStaySortedAndUnique() {
+        Postings postings = new Postings();
+        for (int id : new int[]{7, 3, 9, 1, 5, 3, 11}) {
+            postings.add(id);
+        }
+        assertArrayEquals(new int[]{1, 3, 5, 7, 9, 11}, postings.toArray());
+
+        assertTrue(postings.remove(5));
+        assertFalse(postings.remove(5));
+        assertTrue(postings.remove(11));
+        assertEquals(4, postings.size());
+        assertArrayEquals(new int[]{1, 3, 7, 9}, postings.toArray());
+
+        assertArrayEquals(new int[]{3, 9}, postings.intersect(new int[]{2, 3, 4, 9, 10}));
+        assertArrayEquals(new int[]{}, postings.intersect(new int[]{2, 4, 8}));
+        assertArrayEquals(new int[]{}, postings.intersect(new int[]{}));
+
+        for (int id : new int[]{1, 3, 7, 9}) {
+            postings.remove(id);
+        }
+        assertTrue(postings.isEmpty());
+    }
+}
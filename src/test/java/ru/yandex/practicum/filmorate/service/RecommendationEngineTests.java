@@ -0,0 +1,110 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RecommendationEngineTests {
+    private RecommendationEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new RecommendationEngine(null, new SimpleMeterRegistry(), true, "overlap", 1, 100, 1, false, 100);
+        engine.addLike(1, 1);
+        engine.addLike(2, 1);
+        engine.addLike(1, 2);
+        engine.addLike(2, 2);
+        engine.addLike(3, 2);
+        engine.addLike(4, 3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    void recommendsFilmsOfSimilarUsers() {
+        assertEquals(List.of(3), engine.getRecommendedFilmIds(1));
+        assertEquals(List.of(), engine.getRecommendedFilmIds(2));
+        assertEquals(List.of(), engine.getRecommendedFilmIds(3));
+        assertEquals(List.of(), engine.getRecommendedFilmIds(4));
+    }
+
+    @Test
+    void likeOfNewNeighbourRecomputesCachedUser() {
+        assertEquals(List.of(3), engine.getRecommendedFilmIds(1));
+
+        engine.addLike(1, 3);
+
+        assertEquals(List.of(3, 4), engine.getRecommendedFilmIds(1));
+        assertEquals(List.of(2, 3), engine.getRecommendedFilmIds(3));
+    }
+
+    @Test
+    void unlikeRecomputesFormerNeighbours() {
+        engine.addLike(1, 3);
+        assertEquals(List.of(3, 4), engine.getRecommendedFilmIds(1));
+
+        engine.removeLike(3, 2);
+        assertEquals(List.of(4), engine.getRecommendedFilmIds(1));
+
+        engine.removeLike(1, 3);
+        assertEquals(List.of(), engine.getRecommendedFilmIds(1));
+    }
+
+    @Test
+    void removedUserAndFilmDisappearFromRecommendations() {
+        engine.addLike(1, 3);
+        assertEquals(List.of(3, 4), engine.getRecommendedFilmIds(1));
+
+        engine.removeFilm(4);
+        assertEquals(List.of(3), engine.getRecommendedFilmIds(1));
+
+        engine.removeUser(2);
+        assertEquals(List.of(), engine.getRecommendedFilmIds(1));
+        assertEquals(List.of(2), engine.getRecommendedFilmIds(3));
+    }
+
+    @Test
+    void cacheHoldsAtMostCacheSizeUsers() {
+        RecommendationEngine small = new RecommendationEngine(null, new SimpleMeterRegistry(), true, "overlap",
+                1, 100, 1, false, 1);
+        try {
+            small.addLike(1, 1);
+            small.addLike(1, 2);
+            small.addLike(2, 2);
+            small.addLike(1, 3);
+            small.addLike(3, 3);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(List.of(2, 3), small.getRecommendedFilmIds(1));
+                assertEquals(List.of(3), small.getRecommendedFilmIds(2));
+            }
+
+            small.removeLike(3, 3);
+            assertEquals(List.of(2), small.getRecommendedFilmIds(1));
+            assertEquals(List.of(), small.getRecommendedFilmIds(2));
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    void rebuildMatchesIncrementalResults() {
+        engine.addLike(1, 3);
+        engine.addLike(5, 2);
+        List<Integer> first = engine.getRecommendedFilmIds(1);
+        List<Integer> third = engine.getRecommendedFilmIds(3);
+
+        engine.rebuildAll();
+
+        assertEquals(List.of(3, 4, 5), first);
+        assertEquals(first, engine.getRecommendedFilmIds(1));
+        assertEquals(third, engine.getRecommendedFilmIds(3));
+    }
+}
@@ -0,0 +1,98 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import ru.yandex.practicum.filmorate.api.dto.CreateFilmRequest;
+import ru.yandex.practicum.filmorate.api.dto.CreateReviewRequest;
+import ru.yandex.practicum.filmorate.api.dto.CreateUserRequest;
+import ru.yandex.practicum.filmorate.api.dto.ReviewDTO;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+class ReviewServiceTests {
+    @Autowired
+    private ReviewService reviewService;
+    @Autowired
+    private FilmService filmService;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private ReviewUsefulCounter usefulCounter;
+    @Autowired
+    private ReviewUsefulReconciler usefulReconciler;
+
+    @Test
+    void deletedAuthorsReviewsDoNotShortenPages() {
+        int filmId = addFilm("paging");
+        int[] users = new int[4];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = addUser("paging" + i);
+        }
+        int[] reviews = new int[3];
+        for (int i = 0; i < reviews.length; i++) {
+            reviews[i] = reviewService.addReview(new CreateReviewRequest(filmId, users[i], "paging", true))
+                    .getReviewId();
+        }
+        reviewService.addLikeReview(reviews[0], users[3]);
+
+        userService.deleteUser(users[0]);
+
+        assertEquals(List.of(reviews[1]), ids(reviewService.getReviews(filmId, 1, null)));
+        assertEquals(List.of(reviews[2]), ids(reviewService.getReviews(filmId, 1, reviews[1])));
+        assertEquals(List.of(), ids(reviewService.getReviews(filmId, 1, reviews[2])));
+    }
+
+    @Test
+    void reconcileRestoresLostUsefulChangesOnce() {
+        int filmId = addFilm("reconcileUseful");
+        int author = addUser("reconcileUseful0");
+        int lost = addUser("reconcileUseful1");
+        int pending = addUser("reconcileUseful2");
+        int reviewId = reviewService.addReview(new CreateReviewRequest(filmId, author, "reconcileUseful", true))
+                .getReviewId();
+
+        // голос записан в review_likes, но его изменение рейтинга потеряно, как при падении до записи пачки
+        reviewService.addLikeReview(reviewId, lost);
+        usefulCounter.discard(reviewId);
+        assertEquals(0, reviewService.getReview(reviewId).getUseful());
+
+        reviewService.addLikeReview(reviewId, pending);
+        usefulReconciler.reconcile();
+
+        assertEquals(2, reviewService.getReview(reviewId).getUseful());
+        usefulCounter.flush();
+        assertEquals(2, reviewService.getReview(reviewId).getUseful());
+    }
+
+    private int addFilm(String name) {
+        CreateFilmRequest film = new CreateFilmRequest();
+        film.setName(name);
+        film.setDescription(name);
+        film.setReleaseDate(LocalDate.of(2000, 1, 1));
+        film.setDuration(Duration.ofMinutes(100));
+        film.setMpa(Mpa.builder().id(1).build());
+        return filmService.addFilm(film).getId();
+    }
+
+    private int addUser(String login) {
+        CreateUserRequest user = new CreateUserRequest();
+        user.setEmail(login + "@mail.ru");
+        user.setLogin(login);
+        user.setName(login);
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        return userService.createUser(user).getId();
+    }
+
+    private static List<Integer> ids(List<ReviewDTO> reviews) {
+        return reviews.stream()
+                .map(ReviewDTO::getReviewId)
+                .toList();
+    }
+}
@@ -0,0 +1,89 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.api.dto.EventDTO;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
+import ru.yandex.practicum.filmorate.repository.EventRepository;
+import ru.yandex.practicum.filmorate.repository.FriendshipRepository;
+import ru.yandex.practicum.filmorate.repository.UserRepository;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Предел рассылки - один подписчик: у автора 1 два подписчика (2 и 3), его события подмешиваются при чтении.
+ */
+class TimelineServiceTests {
+    private final Map<Integer, int[]> friends = new HashMap<>();
+    private final Map<Integer, int[]> followers = new HashMap<>();
+    private final Event event = Event.builder()
+            .id(1L)
+            .userId(1)
+            .entityId(1)
+            .type(EventType.LIKE)
+            .operation(EventOperation.ADD)
+            .timestamp(Instant.now())
+            .build();
+    private TimelineService timelineService;
+
+    @BeforeEach
+    void setUp() {
+        EventRepository eventRepository = mock(EventRepository.class);
+        FriendshipRepository friendshipRepository = mock(FriendshipRepository.class);
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.existsById(anyInt())).thenReturn(true);
+        when(friendshipRepository.getFriendIds(anyInt()))
+                .thenAnswer(invocation -> friends.getOrDefault(invocation.<Integer>getArgument(0), new int[0]));
+        when(friendshipRepository.getFollowerIds(anyInt()))
+                .thenAnswer(invocation -> followers.getOrDefault(invocation.<Integer>getArgument(0), new int[0]));
+        when(eventRepository.getRecentEventsByUserIds(any(), anyInt()))
+                .thenAnswer(invocation -> Arrays.stream(invocation.<int[]>getArgument(0)).anyMatch(id -> id == 1)
+                        ? List.of(event) : List.of());
+        timelineService = new TimelineService(eventRepository, friendshipRepository, userRepository,
+                mock(EventWriter.class), 10, 1, 1000);
+
+        friends.put(2, new int[]{1});
+        friends.put(3, new int[]{1});
+        followers.put(1, new int[]{2, 3});
+    }
+
+    @Test
+    void timelinesAreRebuiltWhenAuthorDropsBelowFanOutLimit() {
+        assertEquals(List.of(1L), feed(2));
+
+        friends.put(3, new int[0]);
+        followers.put(1, new int[]{2});
+        timelineService.friendshipChanged(3, 1);
+
+        assertEquals(List.of(1L), feed(2));
+    }
+
+    @Test
+    void timelinesAreRebuiltWhenDeletedFollowerTakesAuthorBelowFanOutLimit() {
+        assertEquals(List.of(1L), feed(2));
+
+        friends.remove(3);
+        followers.put(1, new int[]{2});
+        timelineService.removeUser(3, new int[0], new int[]{1});
+
+        assertEquals(List.of(1L), feed(2));
+    }
+
+    private List<Long> feed(int userId) {
+        return timelineService.getFriendsFeed(userId, 0, 10).stream()
+                .map(EventDTO::getEventId)
+                .toList();
+    }
+}